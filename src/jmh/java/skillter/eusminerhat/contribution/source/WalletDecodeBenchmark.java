@@ -0,0 +1,78 @@
+package skillter.eusminerhat.contribution.source;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding a wallet response with 48 workers and a day of hashrate history: the streaming reader the pool source uses
+ * against the old path, which buffered the whole body into a String and built the Gson tree from it.
+ * Run with -prof gc to compare the allocation as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WalletDecodeBenchmark {
+    private byte[] response;
+
+    @Setup
+    public void loadResponse() throws IOException {
+        try (InputStream in = WalletDecodeBenchmark.class.getResourceAsStream("/f2pool/wallet-xmr.json")) {
+            response = in.readAllBytes();
+        }
+    }
+
+    private InputStream open() {
+        return new ByteArrayInputStream(response);
+    }
+
+    @Benchmark
+    public WalletSnapshot streaming() throws IOException {
+        try (JsonReader reader = new JsonReader(new InputStreamReader(open(), StandardCharsets.UTF_8))) {
+            return F2PoolXMR.readWalletSnapshot(reader);
+        }
+    }
+
+    @Benchmark
+    public WalletSnapshot tree() throws IOException {
+        try (InputStream in = open()) {
+            // As HttpRequest did: the body is read into a byte array, decoded into a String and then parsed
+            String jsonText = new String(in.readAllBytes(), StandardCharsets.UTF_8).trim();
+            JsonObject walletInfoObject = JsonParser.parseString(jsonText).getAsJsonObject();
+            Map<String, Long> workerHashes = new HashMap<>();
+            JsonArray workers = walletInfoObject.getAsJsonArray("workers");
+            if (workers != null) {
+                for (JsonElement worker : workers) {
+                    JsonArray fields = worker.getAsJsonArray();
+                    workerHashes.put(fields.get(0).getAsString(), Math.max(fields.get(4).getAsLong(), 0));
+                }
+            }
+            return new WalletSnapshot(walletInfoObject.get("hashes_last_day").getAsLong(),
+                    walletInfoObject.get("value_last_day").getAsDouble(), workerHashes);
+        }
+    }
+}
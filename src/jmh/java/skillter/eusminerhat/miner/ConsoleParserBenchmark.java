@@ -0,0 +1,108 @@
+package skillter.eusminerhat.miner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parsing half an hour of colored xmrig 6 console output (xmrig/console.log): the byte-level XmrigConsoleParser
+ * against decoding each line into a String and matching it with regular expressions.
+ * Run with -prof gc to compare the allocation as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConsoleParserBenchmark {
+    private static final Pattern ANSI_ESCAPE = Pattern.compile("\u001B\\[[0-9;]*[@-~]");
+    private static final Pattern SPEED = Pattern.compile("speed 10s/60s/15m (\\S+) (\\S+) (\\S+)");
+    private static final Pattern SHARES = Pattern.compile("(?:accepted|rejected) \\((\\d+)/(\\d+)\\)(?: diff (\\d+))?");
+    private static final Pattern NEW_JOB = Pattern.compile("new job from \\S+(?: diff (\\d+))?");
+
+    private byte[][] lines;
+    private MinerTelemetry telemetry;
+    private XmrigConsoleParser parser;
+
+    @Setup
+    public void prepare() throws IOException {
+        byte[] log;
+        try (InputStream in = ConsoleParserBenchmark.class.getResourceAsStream("/xmrig/console.log")) {
+            log = in.readAllBytes();
+        }
+        List<byte[]> split = new ArrayList<>();
+        for (int start = 0, end; start < log.length; start = end + 1) { // lines as the pump commits them, with the line break
+            end = start;
+            while (end < log.length - 1 && log[end] != '\n') {
+                end++;
+            }
+            split.add(Arrays.copyOfRange(log, start, end + 1));
+        }
+        lines = split.toArray(new byte[0][]);
+        telemetry = new MinerTelemetry();
+        parser = new XmrigConsoleParser(telemetry);
+
+        // Both ways have to agree, otherwise the comparison is meaningless
+        MinerTelemetry expected = new MinerTelemetry();
+        for (byte[] line : lines) {
+            parseWithRegex(expected, line);
+        }
+        byteLevel();
+        if (telemetry.getHashrate10s() != expected.getHashrate10s() || telemetry.getHashrate15m() != expected.getHashrate15m()
+                || telemetry.getSharesRejected() != expected.getSharesRejected() || telemetry.getJobsReceived() != expected.getJobsReceived()
+                || telemetry.getPoolDifficulty() != expected.getPoolDifficulty()) {
+            throw new IllegalStateException("The parsers disagree");
+        }
+    }
+
+    @Benchmark
+    public MinerTelemetry byteLevel() {
+        for (byte[] line : lines) {
+            parser.onLine(line, 0, line.length);
+        }
+        return telemetry;
+    }
+
+    @Benchmark
+    public MinerTelemetry regex() {
+        for (byte[] line : lines) {
+            parseWithRegex(telemetry, line);
+        }
+        return telemetry;
+    }
+
+    private static void parseWithRegex(MinerTelemetry telemetry, byte[] bytes) {
+        String line = ANSI_ESCAPE.matcher(new String(bytes, StandardCharsets.UTF_8)).replaceAll("").trim();
+        Matcher matcher;
+        if ((matcher = SPEED.matcher(line)).find()) {
+            telemetry.updateHashrates(parseHashrate(matcher.group(1)), parseHashrate(matcher.group(2)), parseHashrate(matcher.group(3)));
+        } else if ((matcher = SHARES.matcher(line)).find()) {
+            telemetry.updateShares(Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2)),
+                    matcher.group(3) == null ? -1 : Long.parseLong(matcher.group(3)));
+        } else if ((matcher = NEW_JOB.matcher(line)).find()) {
+            telemetry.recordJob(matcher.group(1) == null ? -1 : Long.parseLong(matcher.group(1)));
+        }
+    }
+
+    private static double parseHashrate(String value) {
+        return value.equals("n/a") ? Double.NaN : Double.parseDouble(value);
+    }
+}
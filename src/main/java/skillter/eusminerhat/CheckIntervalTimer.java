@@ -1,7 +1,5 @@
 package skillter.eusminerhat;
 
-import skillter.eusminerhat.miner.MinerManager;
-
 public class CheckIntervalTimer implements Runnable {
     MinerHat plugin;
 
@@ -11,15 +9,10 @@ public class CheckIntervalTimer implements Runnable {
 
     @Override
     public void run() {
-        MinerManager minerManager = plugin.getMinerManager();
-
-        if (minerManager == null) {
+        if (plugin.getMinerCoordinator().isEmpty()) {
             return;
         }
 
-        if (minerManager.checkAndToggleMining()) {
-            plugin.sendInfo(String.format(plugin.l("miner.statusChanged"), minerManager.getMinerStatus() ?
-                    plugin.l("miner.status.mining") : plugin.l("miner.status.stopped")));
-        }
+        plugin.getMinerCoordinator().checkAndToggleMining();
     }
 }
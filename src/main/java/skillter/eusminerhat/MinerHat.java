@@ -3,10 +3,18 @@ package skillter.eusminerhat;
 import skillter.eusminerhat.bukkit.AdminCommandExecutor;
 import skillter.eusminerhat.bukkit.PlayerCommandExecutor;
 import skillter.eusminerhat.contribution.ContributorManager;
+import skillter.eusminerhat.contribution.source.PoolHttpTransport;
 import skillter.eusminerhat.exception.MinerException;
 import skillter.eusminerhat.listener.PlayerListener;
+import skillter.eusminerhat.listener.TickWorkListener;
+import skillter.eusminerhat.miner.MinerCoordinator;
+import skillter.eusminerhat.miner.MinerLifecycleExecutor;
 import skillter.eusminerhat.miner.MinerManager;
 import skillter.eusminerhat.miner.MinerPolicy;
+import skillter.eusminerhat.miner.PolicyWatcher;
+import skillter.eusminerhat.monitor.NumaTopology;
+import skillter.eusminerhat.monitor.ProcessCpuSampler;
+import skillter.eusminerhat.monitor.TickMonitor;
 import skillter.eusminerhat.util.Timestamp;
 import net.milkbowl.vault.economy.Economy;
 import org.bukkit.Bukkit;
@@ -16,17 +24,23 @@ import org.bukkit.scheduler.BukkitTask;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.time.DateTimeException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 
 public final class MinerHat extends JavaPlugin {
-    public static final String LanguagePackVersion = "1.1";
+    public static final String LanguagePackVersion = "1.2";
+    public static final long CpuSampleIntervalTicks = 5 * 20L;
     private static final String[] BuiltInLanguagePacks = { "en" };
 
-    private MinerManager minerManager;
+    private final MinerCoordinator minerCoordinator = new MinerCoordinator(this);
     private String MinerPath;
     private String LanguagePath;
     private String PlayerContributionPath;
@@ -34,11 +48,15 @@ public final class MinerHat extends JavaPlugin {
     private LocaleManager localeManager;
     private ContributorManager contributorManager;
     private BukkitTask checkTask;
+    private PolicyWatcher policyWatcher;
+    private final TickMonitor tickMonitor = new TickMonitor();
+    private final ProcessCpuSampler serverCpuSampler = new ProcessCpuSampler("/proc");
+    private final MinerLifecycleExecutor minerLifecycle = new MinerLifecycleExecutor(this);
 
     private Economy economy = null;
 
-    public MinerManager getMinerManager() {
-        return minerManager;
+    public MinerCoordinator getMinerCoordinator() {
+        return minerCoordinator;
     }
     public String getMinerPath() {
         return MinerPath;
@@ -54,6 +72,9 @@ public final class MinerHat extends JavaPlugin {
         return localeManager;
     }
     public ContributorManager getContributorManager() { return contributorManager; }
+    public TickMonitor getTickMonitor() { return tickMonitor; }
+    public ProcessCpuSampler getServerCpuSampler() { return serverCpuSampler; }
+    public MinerLifecycleExecutor getMinerLifecycle() { return minerLifecycle; }
     public Economy getEconomy() {
         return economy;
     }
@@ -76,14 +97,33 @@ public final class MinerHat extends JavaPlugin {
         }
         registerPlayerContribution();
 
+        if (config.isWatchPoliciesEnabled()) {
+            try {
+                policyWatcher = new PolicyWatcher(this, MinerPath);
+                policyWatcher.start();
+            } catch (IOException e) {
+                sendWarn(String.format(l("miner.policyWatchUnavailable"), e.getLocalizedMessage()));
+            }
+        }
+
         getServer().getPluginManager().registerEvents(new PlayerListener(this), this);
+        TickWorkListener.register(this, tickMonitor); // Paper only, the tick monitor measures between ticks otherwise
+        getServer().getScheduler().runTaskTimer(this, tickMonitor, 1L, 1L);
+        if (!System.getProperty("os.name").startsWith("Windows")) {
+            List<String> self = Collections.singletonList("self");
+            getServer().getScheduler().runTaskTimerAsynchronously(this, () -> serverCpuSampler.sample(self), CpuSampleIntervalTicks, CpuSampleIntervalTicks);
+        }
     }
 
     @Override
     public void onDisable() {
-        if (minerManager != null) {
-            minerManager.stopMining();
+        if (policyWatcher != null) {
+            policyWatcher.close();
         }
+        minerCoordinator.stopAndClear();
+        // Wait for the queued spawns and terminations, no miner should outlive the plugin
+        minerLifecycle.shutdown();
+        PoolHttpTransport.shutdownShared();
     }
 
     private boolean setupEconomy() {
@@ -178,45 +218,124 @@ public final class MinerHat extends JavaPlugin {
     }
 
     /**
-     * Create a new MinerManager and RunningCheckTimer if local mining is enabled.
-     * It will also try to stop the existing miner if needed.
+     * Create a MinerManager for each configured miner and a RunningCheckTimer if local mining is enabled.
+     * If the same miners are configured again and their policies can be applied in place, the running miners are kept.
+     * Otherwise it will try to stop the existing miners.
      * @throws MinerException
      */
     public void registerMiner() throws MinerException {
-        if (this.minerManager != null) { // Attempt to stop existing miner
-            this.minerManager.stopMining();
-            this.minerManager = null;
-        }
-
         if (this.checkTask != null) { // Attempt to cancel existing timer
             this.checkTask.cancel();
             this.checkTask = null;
         }
 
-        if (!config.isLocalMiningEnabled()) {
-            return; // Local mining disabled
-        }
-
-        try {
-            MinerPolicy policy = MinerPolicy.loadPolicy(getMinerPath() + "/" + config.getMiner() + ".json");
-            this.minerManager = new MinerManager(this, config.getMiner(), policy);
+        if (!config.isLocalMiningEnabled() || !reloadMinerPolicies()) {
+            minerCoordinator.stopAndClear(); // Attempt to stop existing miners
+            if (!config.isLocalMiningEnabled()) {
+                return; // Local mining disabled
+            }
+            registerMinerManagers();
             printMinerInformation();
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new MinerException(MinerException.MinerExceptionType.FAILED_LOADING_POLICY, "Failed loading miner policy");
         }
 
-
+        minerCoordinator.setMaxConcurrentMiners(config.getMaxConcurrentMiners());
         if (config.getCheckIntervalSeconds() > 0) { // check timer will be disabled if interval is less or equal than 0
             long interval = config.getCheckIntervalSeconds() * 20L;
             this.checkTask = getServer().getScheduler().runTaskTimer(this, new CheckIntervalTimer(this), interval, interval);
         }
     }
 
+    /**
+     * Apply the policies of the configured miners to the running miners in place.
+     * @return true: applied; false: the configured miners differ, or a policy needs new MinerManagers
+     */
+    private boolean reloadMinerPolicies() {
+        if (minerCoordinator.isEmpty() || !minerCoordinator.getPolicyNames().equals(config.getMiners())) {
+            return false;
+        }
+
+        List<MinerPolicy> policies = new ArrayList<>();
+        for (String miner : config.getMiners()) {
+            try {
+                MinerPolicy policy = MinerPolicy.loadPolicy(getMinerPath() + "/" + miner + ".json");
+                if (policy == null || !minerCoordinator.getManagersOfPolicy(miner).get(0).getPolicy().hasSameSetup(policy)) {
+                    return false;
+                }
+                policies.add(policy);
+            } catch (Exception e) {
+                return false; // registering will report it
+            }
+        }
+
+        for (int i = 0; i < policies.size(); i++) {
+            applyMinerPolicy(config.getMiners().get(i), policies.get(i));
+        }
+        return true;
+    }
+
+    /**
+     * Apply a changed policy to its running miners in place, e.g. after the policy file has been edited.
+     * @param miner policy name
+     * @return true: applied; false: no miner runs the policy, the change only takes effect on reload, or the schedule is malformed
+     * @return true: applied; false: no miner runs the policy, or the change only takes effect on reload
+     */
+    public boolean applyMinerPolicy(String miner, MinerPolicy policy) {
+        List<MinerManager> managers = minerCoordinator.getManagersOfPolicy(miner);
+        if (managers.isEmpty()) {
+            return false;
+        }
+        if (!managers.get(0).getPolicy().hasSameSetup(policy)) {
+            sendWarn(String.format(l("miner.policyNeedsReload"), miner));
+            return false;
+        }
+
+        try {
+            for (MinerManager manager : managers) { // they share the policy, so a malformed schedule fails on the first
+                manager.updatePolicy(policy);
+            }
+        } catch (DateTimeException e) {
+            sendSevere(String.format(l("miner.policyReloadFailed"), miner, e.getLocalizedMessage()));
+            return false;
+        }
+        sendInfo(String.format(l("miner.policyReloaded"), miner));
+        return true;
+    }
+
+    private void registerMinerManagers() throws MinerException {
+        for (String miner : config.getMiners()) {
+            try {
+                MinerPolicy policy = MinerPolicy.loadPolicy(getMinerPath() + "/" + miner + ".json");
+                List<NumaTopology.Node> nodes = readNumaNodes(miner, policy);
+                if (nodes.isEmpty()) {
+                    minerCoordinator.register(new MinerManager(this, miner, policy));
+                }
+                for (NumaTopology.Node node : nodes) { // One miner per node, so every dataset stays local
+                    minerCoordinator.register(new MinerManager(this, miner, policy, node));
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+                minerCoordinator.stopAndClear();
+                throw new MinerException(MinerException.MinerExceptionType.FAILED_LOADING_POLICY, "Failed loading miner policy: " + miner);
+            }
+        }
+    }
+
+    private List<NumaTopology.Node> readNumaNodes(String miner, MinerPolicy policy) {
+        if (!policy.getNuma().isEnabled()) {
+            return new ArrayList<>();
+        }
+        try {
+            return NumaTopology.selectMinerNodes(NumaTopology.read(policy.getNuma().getSysfsRoot()));
+        } catch (IOException e) {
+            sendWarn(String.format(l("miner.numaUnavailable"), policy.getNuma().getSysfsRoot(), e.getLocalizedMessage(), miner));
+            return new ArrayList<>();
+        }
+    }
+
     void printMinerInformation() {
         sendInfo(l("miner.info.header"));
         sendInfo(String.format(l("miner.info.enabled"), config.isLocalMiningEnabled()));
-        sendInfo(String.format(l("miner.info.name"), config.getMiner()));
+        sendInfo(String.format(l("miner.info.name"), String.join(", ", minerCoordinator.getMinerNames())));
         sendInfo(String.format(l("miner.info.checkInterval"), config.getCheckIntervalSeconds()));
         sendInfo(String.format(l("miner.info.restartInterval"), getMinerHatConfig().getRestartMinerIntervalMinutes()));
     }
@@ -228,6 +347,7 @@ public final class MinerHat extends JavaPlugin {
         sendInfo(String.format(l("contribution.info.wallet"), config.getWalletAddress()));
         sendInfo(String.format(l("contribution.info.workerPrefix"), config.getWorkerPrefix()));
         sendInfo(String.format(l("contribution.info.walletInfoExpireSeconds"), config.getWalletInfoExpireSeconds()));
+        sendInfo(String.format(l("contribution.info.walletInfoStaleSeconds"), config.getWalletInfoStaleSeconds()));
         sendInfo(String.format(l("contribution.info.revenueFactor"), config.getRevenueFactor()));
         sendInfo(String.format(l("contribution.info.economyIntegration.enabled"), config.isEconomyIntegrationEnabled()));
         sendInfo(String.format(l("contribution.info.economyIntegration.exchangeRateToServerMoney"), config.getExchangeRateToServerMoney()));
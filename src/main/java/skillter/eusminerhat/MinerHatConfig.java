@@ -2,12 +2,18 @@ package skillter.eusminerhat;
 
 import skillter.eusminerhat.contribution.source.PoolSourceType;
 
+import java.util.ArrayList;
+import java.util.List;
+
 @SuppressWarnings("FieldMayBeFinal")
 public class MinerHatConfig {
     private String language;
 
     private boolean localMiningEnabled;
     private String miner;
+    private List<String> miners;
+    private int maxConcurrentMiners;
+    private boolean watchPoliciesEnabled;
     private int checkIntervalSeconds;
 
     private int restartMinerIntervalMinutes;
@@ -19,6 +25,7 @@ public class MinerHatConfig {
     private String playerMiningNoteValue;
     private String workerPrefix;
     private int walletInfoExpireSeconds;
+    private int walletInfoStaleSeconds;
     private double revenueFactor;
     private int revenueDecimalPlaces;
 //    private PayoutInterval payoutInterval;
@@ -31,6 +38,9 @@ public class MinerHatConfig {
 
         this.localMiningEnabled = plugin.getConfig().getBoolean("localMining.enable", true);
         this.miner = plugin.getConfig().getString("localMining.miner", "");
+        this.miners = plugin.getConfig().getStringList("localMining.miners");
+        this.maxConcurrentMiners = plugin.getConfig().getInt("localMining.maxConcurrentMiners", 0); // <=0: no limit
+        this.watchPoliciesEnabled = plugin.getConfig().getBoolean("localMining.watchPolicies", true);
         this.checkIntervalSeconds = plugin.getConfig().getInt("localMining.checkIntervalSeconds", 0);
         this.restartMinerIntervalMinutes = plugin.getConfig().getInt("localMining.restartMinerIntervalMinutes", 0);
 
@@ -41,6 +51,7 @@ public class MinerHatConfig {
         this.playerMiningNoteValue = plugin.getConfig().getString("playerContribution.playerMiningNote.value", "");
         this.workerPrefix = plugin.getConfig().getString("playerContribution.workerPrefix", "");
         this.walletInfoExpireSeconds = plugin.getConfig().getInt("playerContribution.walletInfoExpireSeconds", 600); // <=0: never expire
+        this.walletInfoStaleSeconds = plugin.getConfig().getInt("playerContribution.walletInfoStaleSeconds", 300); // <=0: wait for the refresh
         this.revenueFactor = plugin.getConfig().getDouble("playerContribution.revenueFactor", 1.0);
         this.revenueDecimalPlaces = plugin.getConfig().getInt("playerContribution.revenueDecimalPlaces", 3);
 //        this.payoutInterval = PayoutInterval.valueOf(plugin.getConfig().getString("playerContribution.payoutInterval", "HOURLY").toUpperCase());
@@ -66,6 +77,27 @@ public class MinerHatConfig {
         this.miner = miner;
     }
 
+    /**
+     * Get the names of the miners to run side by side, in priority order.
+     * @return localMining.miners, or localMining.miner alone if no list is configured
+     */
+    public List<String> getMiners() {
+        if (miners == null || miners.isEmpty()) {
+            List<String> single = new ArrayList<>();
+            single.add(miner);
+            return single;
+        }
+        return new ArrayList<>(miners);
+    }
+
+    public int getMaxConcurrentMiners() {
+        return maxConcurrentMiners;
+    }
+
+    public boolean isWatchPoliciesEnabled() {
+        return watchPoliciesEnabled;
+    }
+
     public int getCheckIntervalSeconds() {
         return checkIntervalSeconds;
     }
@@ -104,6 +136,10 @@ public class MinerHatConfig {
         return walletInfoExpireSeconds;
     }
 
+    public int getWalletInfoStaleSeconds() {
+        return walletInfoStaleSeconds;
+    }
+
     public double getRevenueFactor() {
         return revenueFactor;
     }
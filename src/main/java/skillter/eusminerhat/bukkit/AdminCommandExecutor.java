@@ -2,20 +2,59 @@ package skillter.eusminerhat.bukkit;
 
 import skillter.eusminerhat.MinerHat;
 import skillter.eusminerhat.exception.MinerException;
+import skillter.eusminerhat.miner.MinerManager;
+import skillter.eusminerhat.miner.MinerOutputBuffer;
+import skillter.eusminerhat.miner.MinerTelemetry;
+import skillter.eusminerhat.miner.TickImpactBenchmark;
+import skillter.eusminerhat.miner.TuningProfile;
+import skillter.eusminerhat.monitor.CpuUsageSeries;
+import skillter.eusminerhat.util.CpuList;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.TabExecutor;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitTask;
 
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 public class AdminCommandExecutor implements CommandExecutor, TabExecutor {
     MinerHat plugin;
     private final String adminPermissionNode = "minerhat.admin";
-    private final String[] commands = {"help", "status", "log", "start", "stop", "reload"};
+    private final String[] commands = {"help", "status", "log", "start", "stop", "benchmark", "tune", "reload"};
+    private final String[] logSubCommands = {"follow"};
+    private final String[] minerCommands = {"status", "start", "stop", "benchmark", "tune"};
+    private static final int DefaultLogLines = 20;
+    private static final int MaxLogLines = 200;
+    private static final long LogFollowIntervalTicks = 20L;
+    private static final int CpuUsageWindowSeconds = 60;
+    private static final int DefaultBenchmarkWindowSeconds = 120;
+    private static final int MinBenchmarkWindowSeconds = 30;
+    private static final int MaxBenchmarkWindowSeconds = 3600;
+    private static final int MaxBenchmarkRounds = 10;
+    private static final DateTimeFormatter ScheduleTimeFormat = DateTimeFormatter.ofPattern("EEE HH:mm z");
+
+    private static class LogFollower {
+        final String miner;
+        MinerOutputBuffer.Cursor cursor;
+
+        LogFollower(String miner, MinerOutputBuffer.Cursor cursor) {
+            this.miner = miner;
+            this.cursor = cursor;
+        }
+    }
+
+    private final Map<CommandSender, LogFollower> logFollowers = new HashMap<>();
+    private BukkitTask logFollowTask = null;
+    private TickImpactBenchmark benchmark = null;
 //    private final String[] policySubCommands = {"list", "set"};
 
     public AdminCommandExecutor(MinerHat plugin) {
@@ -25,59 +64,100 @@ public class AdminCommandExecutor implements CommandExecutor, TabExecutor {
     @Override
     public boolean onCommand(CommandSender sender, Command command, String alias, String[] args) {
         if (sender.hasPermission(adminPermissionNode)) {
-            if (args.length == 1) {
+            if (args.length >= 1) {
                 switch (args[0].toLowerCase()) {
                     case "status":
-                        sendMessage(sender, String.format(plugin.l("miner.info.name"), plugin.getMinerHatConfig().getMiner()));
                         sendMessage(sender, String.format(plugin.l("miner.info.checkInterval"), plugin.getMinerHatConfig().getCheckIntervalSeconds()));
-                        if (plugin.getMinerManager() == null) {
-                            sendMessage(sender, plugin.l("miner.managerNotCreated"));
-                        } else {
-                            sendMessage(sender, String.format(plugin.l("miner.info.status"),
-                                    plugin.getMinerManager().getMinerStatus() ? plugin.l("miner.status.mining") : plugin.l("miner.status.stopped")));
+                        sendMessage(sender, String.format(plugin.l("miner.info.mspt"), plugin.getTickMonitor().getWindowTicks() / 20,
+                                plugin.getTickMonitor().getPercentileMillis(50), plugin.getTickMonitor().getPercentileMillis(95)));
+                        sendCpuUsage(sender, "miner.info.serverCpu", plugin.getServerCpuSampler().getSeries());
+                        List<MinerManager> selected = selectMiners(sender, args, 1);
+                        for (MinerManager minerManager : selected) {
+                            sendStatus(sender, minerManager);
+                        }
+                        if (selected.size() > 1) {
+                            sendTotalHashrate(sender, selected);
                         }
                         break;
 
-                    case "log":
-                        if (plugin.getMinerManager() == null) {
+                    case "log": {
+                        if (plugin.getMinerCoordinator().isEmpty()) {
                             sendMessage(sender, plugin.l("miner.managerNotCreated"));
+                            break;
+                        }
+                        // The miner name is optional, the first miner is meant without it
+                        MinerManager minerManager = args.length >= 2 ? plugin.getMinerCoordinator().get(args[1]) : null;
+                        int argIndex = minerManager == null ? 1 : 2;
+                        if (minerManager == null) {
+                            minerManager = plugin.getMinerCoordinator().getManagers().get(0);
+                        }
+
+                        if (args.length > argIndex && args[argIndex].equalsIgnoreCase("follow")) {
+                            toggleLogFollow(sender, minerManager);
                         } else {
-                            if (plugin.getMinerManager().getMinerStatus()) {
-                                sendMessage(sender, String.format(plugin.l("message.command.admin.log.logFollows"), plugin.getMinerManager().fetchMinerOutput()));
-                            } else {
+                            int lines = DefaultLogLines;
+                            if (args.length > argIndex) {
+                                try {
+                                    lines = Integer.parseInt(args[argIndex]);
+                                } catch (NumberFormatException e) {
+                                    if (argIndex == 1) { // neither a miner nor a number of lines
+                                        sendMessage(sender, String.format(plugin.l("miner.notFound"), args[argIndex]));
+                                        break;
+                                    }
+                                    lines = 0;
+                                }
+                                if (lines <= 0 || lines > MaxLogLines) {
+                                    sendMessage(sender, String.format(plugin.l("message.command.admin.log.illegalLines"), MaxLogLines));
+                                    break;
+                                }
+                            }
+                            String log = minerManager.fetchMinerOutput(lines);
+                            if (log.isEmpty()) {
                                 sendMessage(sender, plugin.l("message.command.admin.log.noLog"));
+                            } else {
+                                sendMessage(sender, String.format(plugin.l("message.command.admin.log.logFollows"), log));
                             }
                         }
                         break;
+                    }
 
                     case "start":
-                        if (plugin.getMinerManager() == null) {
-                            sendMessage(sender, plugin.l("miner.managerNotCreated"));
-                        } else {
-                            if (plugin.getMinerManager().getMinerStatus()) {
-                                sendMessage(sender, plugin.l("message.command.admin.start.already"));
+                        for (MinerManager minerManager : selectMiners(sender, args, 1)) {
+                            if (minerManager.getMinerStatus()) {
+                                sendMessage(sender, String.format(plugin.l("message.command.admin.start.already"), minerManager.getName()));
                             } else {
-                                plugin.getMinerManager().startMining();
-                                sendMessage(sender, plugin.l("message.command.admin.start.started"));
+                                minerManager.getSupervisor().reset(); // a manual start overrides crash backoff
+                                minerManager.startMining();
+                                sendMessage(sender, String.format(plugin.l("message.command.admin.start.started"), minerManager.getName()));
                             }
                         }
                         break;
 
                     case "stop":
                         // TODO: Disable auto mining control for time interval
-                        if (plugin.getMinerManager() == null) {
-                            sendMessage(sender, plugin.l("miner.managerNotCreated"));
-                        } else {
-                            if (plugin.getMinerManager().getMinerStatus()) {
-                                plugin.getMinerManager().stopMining();
-                                sendMessage(sender, plugin.l("message.command.admin.stop.stopped"));
+                        for (MinerManager minerManager : selectMiners(sender, args, 1)) {
+                            MinerManager.MinerState minerState = minerManager.getMinerState();
+                            if (minerState != MinerManager.MinerState.STOPPED && minerState != MinerManager.MinerState.STOPPING) {
+                                minerManager.stopMining();
+                                sendMessage(sender, String.format(plugin.l("message.command.admin.stop.stopped"), minerManager.getName()));
                             } else {
-                                sendMessage(sender, plugin.l("message.command.admin.stop.notRunning"));
+                                sendMessage(sender, String.format(plugin.l("message.command.admin.stop.notRunning"), minerManager.getName()));
                             }
                         }
                         break;
 
+                    case "benchmark":
+                        runBenchmarkCommand(sender, args);
+                        break;
+
+                    case "tune":
+                        runTuneCommand(sender, args);
+                        break;
+
                     case "reload":
+                        if (benchmark != null && !benchmark.isFinished()) { // The miner is about to be replaced
+                            benchmark.cancel();
+                        }
                         sendMessage(sender, plugin.l("message.command.admin.reload.reloading"));
                         plugin.loadMinerHatConfig();
                         try {
@@ -106,6 +186,265 @@ public class AdminCommandExecutor implements CommandExecutor, TabExecutor {
         sender.sendMessage(plugin.prefixForEachLine(message));
     }
 
+    /**
+     * Pick the miners a command applies to, and tell the sender if there are none.
+     * @param args command arguments
+     * @param index index of the optional miner name
+     * @return the named miner, or all miners if no name is given; empty if the name is unknown
+     */
+    private List<MinerManager> selectMiners(CommandSender sender, String[] args, int index) {
+        if (plugin.getMinerCoordinator().isEmpty()) {
+            sendMessage(sender, plugin.l("miner.managerNotCreated"));
+            return new ArrayList<>();
+        }
+        if (args.length <= index) {
+            return plugin.getMinerCoordinator().getManagers();
+        }
+
+        List<MinerManager> selected = new ArrayList<>();
+        MinerManager minerManager = plugin.getMinerCoordinator().get(args[index]);
+        if (minerManager == null) {
+            sendMessage(sender, String.format(plugin.l("miner.notFound"), args[index]));
+        } else {
+            selected.add(minerManager);
+        }
+        return selected;
+    }
+
+    private void runBenchmarkCommand(CommandSender sender, String[] args) {
+        boolean running = benchmark != null && !benchmark.isFinished();
+        if (args.length >= 2 && args[1].equalsIgnoreCase("stop")) {
+            if (running) {
+                benchmark.cancel();
+            } else {
+                sendMessage(sender, plugin.l("message.command.admin.benchmark.notRunning"));
+            }
+            return;
+        }
+        if (running) {
+            sendMessage(sender, String.format(plugin.l("message.command.admin.benchmark.already"), benchmark.getMinerManager().getName()));
+            return;
+        }
+        if (plugin.getMinerCoordinator().isEmpty()) {
+            sendMessage(sender, plugin.l("miner.managerNotCreated"));
+            return;
+        }
+
+        // benchmark [miner] [windowSeconds] [rounds]
+        MinerManager minerManager = args.length >= 2 ? plugin.getMinerCoordinator().get(args[1]) : null;
+        int argIndex = minerManager == null ? 1 : 2;
+        if (minerManager == null) {
+            minerManager = plugin.getMinerCoordinator().getManagers().get(0);
+        }
+        int windowSeconds = DefaultBenchmarkWindowSeconds;
+        int rounds = 1;
+        try {
+            if (args.length > argIndex) {
+                windowSeconds = Integer.parseInt(args[argIndex]);
+            }
+            if (args.length > argIndex + 1) {
+                rounds = Integer.parseInt(args[argIndex + 1]);
+            }
+        } catch (NumberFormatException ignored) {
+            windowSeconds = 0;
+        }
+        if (windowSeconds < MinBenchmarkWindowSeconds || windowSeconds > MaxBenchmarkWindowSeconds || rounds < 1 || rounds > MaxBenchmarkRounds) {
+            sendMessage(sender, String.format(plugin.l("message.command.admin.benchmark.illegalArguments"),
+                    MinBenchmarkWindowSeconds, MaxBenchmarkWindowSeconds, MaxBenchmarkRounds));
+            return;
+        }
+        if (!minerManager.getPolicy().getHttpApi().isEnabled()) {
+            sendMessage(sender, String.format(plugin.l("message.command.admin.benchmark.noHttpApi"), minerManager.getName()));
+            return;
+        }
+        if (minerManager.isTuning()) {
+            sendMessage(sender, String.format(plugin.l("message.command.admin.tune.already"), minerManager.getName()));
+            return;
+        }
+
+        benchmark = new TickImpactBenchmark(plugin, minerManager, sender, windowSeconds, rounds);
+        benchmark.start();
+        sendMessage(sender, String.format(plugin.l("message.command.admin.benchmark.started"), minerManager.getName(), benchmark.getTotalSeconds() / 60));
+    }
+
+    private void runTuneCommand(CommandSender sender, String[] args) {
+        if (args.length >= 2 && args[1].equalsIgnoreCase("stop")) {
+            boolean cancelled = false;
+            for (MinerManager minerManager : plugin.getMinerCoordinator().getManagers()) {
+                if (minerManager.isTuning()) {
+                    minerManager.cancelTuning();
+                    cancelled = true;
+                }
+            }
+            if (!cancelled) {
+                sendMessage(sender, plugin.l("message.command.admin.tune.notRunning"));
+            }
+            return;
+        }
+        for (MinerManager minerManager : plugin.getMinerCoordinator().getManagers()) {
+            if (minerManager.isTuning()) { // Runs would compete for the same CPUs
+                sendMessage(sender, String.format(plugin.l("message.command.admin.tune.already"), minerManager.getName()));
+                return;
+            }
+        }
+
+        // tune [miner]
+        List<MinerManager> selected = selectMiners(sender, args, 1);
+        if (selected.isEmpty()) {
+            return;
+        }
+        MinerManager minerManager = selected.get(0);
+        if (benchmark != null && !benchmark.isFinished() && benchmark.getMinerManager() == minerManager) {
+            sendMessage(sender, String.format(plugin.l("message.command.admin.benchmark.already"), minerManager.getName()));
+            return;
+        }
+        minerManager.tune();
+        sendMessage(sender, String.format(plugin.l("message.command.admin.tune.started"), minerManager.getName()));
+    }
+
+    private void sendStatus(CommandSender sender, MinerManager minerManager) {
+        sendMessage(sender, String.format(plugin.l("miner.info.name"), minerManager.getName()));
+        sendMessage(sender, String.format(plugin.l("miner.info.status"), plugin.l(minerManager.getMinerStatusToken())));
+        if (minerManager.getSupervisor().isCrashLoopDetected()) {
+            sendMessage(sender, plugin.l("miner.info.crashLoop"));
+        }
+        if (minerManager.getSchedule().isEnabled()) {
+            Instant next = minerManager.getSchedule().getNextTransition(Instant.now());
+            sendMessage(sender, String.format(plugin.l("miner.info.schedule"),
+                    plugin.l(minerManager.isScheduleAllowed() ? "miner.schedule.open" : "miner.schedule.closed"),
+                    next == null ? "-" : ScheduleTimeFormat.format(next.atZone(minerManager.getSchedule().getZone()))));
+        }
+        if (minerManager.getMinerThreads() > 0) {
+            sendMessage(sender, String.format(plugin.l("miner.info.threads"), minerManager.getMinerThreads()));
+        }
+        if (minerManager.getMemoryHeadroomBytes() >= 0) {
+            sendMessage(sender, String.format(plugin.l("miner.info.memory"), minerManager.getMemoryHeadroomBytes() / 1024 / 1024,
+                    minerManager.getPolicy().getMemoryGuard().getMinimumAvailableMegabytes(),
+                    plugin.l(minerManager.isLightMode() ? "miner.info.memory.light" : "miner.info.memory.full")));
+        }
+        if (minerManager.isTuning()) {
+            sendMessage(sender, plugin.l("miner.info.tuning"));
+        } else if (minerManager.getTuningProfile() != null) {
+            TuningProfile profile = minerManager.getTuningProfile();
+            sendMessage(sender, String.format(plugin.l("miner.info.tuningProfile"), profile,
+                    MinerTelemetry.formatHashrate(profile.getHashrate()),
+                    plugin.l(minerManager.getPolicy().getTuning().isUseProfile() ? "miner.info.tuningProfile.applied" : "miner.info.tuningProfile.ignored")));
+        }
+        if (minerManager.getNumaNode() != null) {
+            sendMessage(sender, String.format(plugin.l("miner.info.numaNode"),
+                    minerManager.getNumaNode().getId(), CpuList.format(minerManager.getNumaNode().getCpus())));
+        }
+        if (minerManager.getCpuPartition() != null) {
+            sendMessage(sender, String.format(plugin.l("miner.info.cpus"),
+                    CpuList.format(minerManager.getCpuPartition().getServerCpus()),
+                    CpuList.format(minerManager.getCpuPartition().getMinerCpus())));
+        }
+        if (minerManager.isMinerAlive()) {
+            sendCpuUsage(sender, "miner.info.minerCpu", minerManager.getCpuSampler().getSeries());
+        }
+        sendTelemetry(sender, minerManager.getTelemetry());
+    }
+
+    private void sendCpuUsage(CommandSender sender, String token, CpuUsageSeries series) {
+        long since = System.currentTimeMillis() - CpuUsageWindowSeconds * 1000L;
+        if (series.getLatestMillis() < since) {
+            return; // Nothing sampled lately
+        }
+        sendMessage(sender, String.format(plugin.l(token), CpuUsageWindowSeconds, series.getAverageCpuPercent(since),
+                series.getAverageContextSwitchesPerSecond(since), series.getAverageRunDelayMillisPerSecond(since)));
+    }
+
+    private void sendTotalHashrate(CommandSender sender, List<MinerManager> minerManagers) {
+        double[] total = new double[3];
+        for (MinerManager minerManager : minerManagers) {
+            MinerTelemetry telemetry = minerManager.getTelemetry();
+            if (minerManager.getMinerStatus()) { // Numbers of stopped miners are stale
+                total[0] += Double.isNaN(telemetry.getHashrate10s()) ? 0 : telemetry.getHashrate10s();
+                total[1] += Double.isNaN(telemetry.getHashrate60s()) ? 0 : telemetry.getHashrate60s();
+                total[2] += Double.isNaN(telemetry.getHashrate15m()) ? 0 : telemetry.getHashrate15m();
+            }
+        }
+        sendMessage(sender, String.format(plugin.l("miner.info.totalHashrate"), MinerTelemetry.formatHashrate(total[0]),
+                MinerTelemetry.formatHashrate(total[1]), MinerTelemetry.formatHashrate(total[2])));
+    }
+
+    private void sendTelemetry(CommandSender sender, MinerTelemetry telemetry) {
+        if (telemetry.getUpdatedMillis() == 0) {
+            return; // Nothing reported yet
+        }
+
+        sendMessage(sender, String.format(plugin.l("miner.info.hashrate"),
+                MinerTelemetry.formatHashrate(telemetry.getHashrate10s()),
+                MinerTelemetry.formatHashrate(telemetry.getHashrate60s()),
+                MinerTelemetry.formatHashrate(telemetry.getHashrate15m()),
+                (System.currentTimeMillis() - telemetry.getUpdatedMillis()) / 1000));
+        sendMessage(sender, String.format(plugin.l("miner.info.shares"), telemetry.getSharesAccepted(), telemetry.getSharesRejected()));
+        if (telemetry.getPoolPingMillis() >= 0) {
+            sendMessage(sender, String.format(plugin.l("miner.info.poolPing"), telemetry.getPoolPingMillis()));
+        }
+
+        double[] threadHashrates = telemetry.getThreadHashrates();
+        if (threadHashrates.length > 0) {
+            StringBuilder threads = new StringBuilder();
+            for (int i = 0; i < threadHashrates.length; i++) {
+                if (i > 0) {
+                    threads.append(", ");
+                }
+                threads.append('#').append(i).append(' ').append(MinerTelemetry.formatHashrate(threadHashrates[i]));
+            }
+            sendMessage(sender, String.format(plugin.l("miner.info.threadHashrate"), threads));
+        }
+    }
+
+    private void toggleLogFollow(CommandSender sender, MinerManager minerManager) {
+        LogFollower follower = logFollowers.remove(sender);
+        if (follower != null && follower.miner.equals(minerManager.getName())) {
+            sendMessage(sender, plugin.l("message.command.admin.log.follow.stopped"));
+        } else { // Following another miner replaces the previous one
+            logFollowers.put(sender, new LogFollower(minerManager.getName(), minerManager.getOutputBuffer().openCursor()));
+            sendMessage(sender, String.format(plugin.l("message.command.admin.log.follow.started"), minerManager.getName()));
+        }
+
+        if (logFollowers.isEmpty()) {
+            if (logFollowTask != null) {
+                logFollowTask.cancel();
+                logFollowTask = null;
+            }
+        } else if (logFollowTask == null) {
+            logFollowTask = plugin.getServer().getScheduler().runTaskTimer(plugin, this::pushFollowedLogs, LogFollowIntervalTicks, LogFollowIntervalTicks);
+        }
+    }
+
+    private void pushFollowedLogs() {
+        Iterator<Map.Entry<CommandSender, LogFollower>> iterator = logFollowers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<CommandSender, LogFollower> entry = iterator.next();
+            if (entry.getKey() instanceof Player && !((Player) entry.getKey()).isOnline()) {
+                iterator.remove();
+                continue;
+            }
+
+            LogFollower follower = entry.getValue();
+            MinerManager minerManager = plugin.getMinerCoordinator().get(follower.miner);
+            if (minerManager == null) { // Removed by a reload
+                continue;
+            }
+            if (follower.cursor.getBuffer() != minerManager.getOutputBuffer()) { // The miner manager has been recreated by a reload
+                follower.cursor = minerManager.getOutputBuffer().openCursor();
+            }
+
+            String log = follower.cursor.readNew();
+            if (!log.isEmpty()) {
+                entry.getKey().sendMessage(plugin.prefixForEachLine(log.endsWith("\n") ? log.substring(0, log.length() - 1) : log));
+            }
+        }
+
+        if (logFollowers.isEmpty() && logFollowTask != null) {
+            logFollowTask.cancel();
+            logFollowTask = null;
+        }
+    }
+
     @Override
     public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
         if (!sender.hasPermission(adminPermissionNode)) return new ArrayList<>();
@@ -118,7 +457,15 @@ public class AdminCommandExecutor implements CommandExecutor, TabExecutor {
 //                return Arrays.stream(policySubCommands).filter(s -> s.startsWith(args[1])).collect(Collectors.toList());
 //            else
 //                return new ArrayList<>();
-        if (args.length == 1)
+        if (args.length == 2 && args[0].equalsIgnoreCase("log")) {
+            List<String> candidates = plugin.getMinerCoordinator().getMinerNames();
+            candidates.addAll(Arrays.asList(logSubCommands));
+            return candidates.stream().filter(s -> s.startsWith(args[1])).collect(Collectors.toList());
+        } else if (args.length == 3 && args[0].equalsIgnoreCase("log") && plugin.getMinerCoordinator().get(args[1]) != null)
+            return Arrays.stream(logSubCommands).filter(s -> s.startsWith(args[2])).collect(Collectors.toList());
+        else if (args.length == 2 && Arrays.asList(minerCommands).contains(args[0].toLowerCase()))
+            return plugin.getMinerCoordinator().getMinerNames().stream().filter(s -> s.startsWith(args[1])).collect(Collectors.toList());
+        else if (args.length == 1)
             return Arrays.stream(commands).filter(s -> s.startsWith(args[0])).collect(Collectors.toList());
         else
             return Arrays.asList(commands);
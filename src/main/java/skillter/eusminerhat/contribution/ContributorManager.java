@@ -71,7 +71,7 @@ public class ContributorManager {
 
             // Validate time interval between last checkout
             // TODO: Checkout that does not require halt
-            Map<Long, Integer> hashrateHistory = getPlayerContribution(player).getHashrateHistoryCopy();
+            Map<Long, Long> hashrateHistory = getPlayerContribution(player).getHashrateHistoryCopy();
             if (hashrateHistory.size() > 0) {
                 final long[] lastTimestamp = {0};
                 hashrateHistory.forEach((secondsSince1970, hashrate) -> {
@@ -89,9 +89,9 @@ public class ContributorManager {
 
             // Checkout player contribution
             try {
-                int walletHashrate = this.poolSource.getWalletHashrate24h();
+                long walletHashrate = this.poolSource.getWalletHashrate24h();
                 double walletRevenue = this.poolSource.getWalletRevenue24h();
-                double playerPercentage = (double)workerHashrate / (double)walletHashrate;
+                double playerPercentage = walletHashrate > 0 ? (double)workerHashrate / (double)walletHashrate : 0; // no hashes: nothing to share
                 double playerShare = walletRevenue * playerPercentage * plugin.getMinerHatConfig().getRevenueFactor();
                 playerShare = Decimal.round(playerShare, plugin.getMinerHatConfig().getRevenueDecimalPlaces());
                 depositPlayerRevenue(player, playerShare);
@@ -130,7 +130,7 @@ public class ContributorManager {
         getPlayerContribution(player).setRevenue(amount);
     }
 
-    private void recordPlayerHashrate(Player player, int hashrate) {
+    private void recordPlayerHashrate(Player player, long hashrate) {
         getPlayerContribution(player).appendHashrate(hashrate);
     }
 
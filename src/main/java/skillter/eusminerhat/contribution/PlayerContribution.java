@@ -23,7 +23,7 @@ public class PlayerContribution {
     private String playerName;
     private double revenue;
     private double accumulativeRevenue;
-    private Map<Long, Integer> hashrateHistory;
+    private Map<Long, Long> hashrateHistory;
     private Map<Long, Double> revenueChangeHistory;
 
     public String getPlayerName() {
@@ -38,7 +38,7 @@ public class PlayerContribution {
         return accumulativeRevenue;
     }
 
-    public Map<Long, Integer> getHashrateHistoryCopy() {
+    public Map<Long, Long> getHashrateHistoryCopy() {
         return new HashMap<>(hashrateHistory);
     }
 
@@ -100,7 +100,7 @@ public class PlayerContribution {
         this.revenue = amount;
     }
 
-    protected void appendHashrate(int hashrate) {
+    protected void appendHashrate(long hashrate) {
         hashrateHistory.put(Timestamp.getSecondsSince1970(), hashrate);
         save();
     }
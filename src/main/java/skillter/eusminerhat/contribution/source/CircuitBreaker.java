@@ -0,0 +1,111 @@
+package skillter.eusminerhat.contribution.source;
+
+/**
+ * Stops calling a pool that keeps failing. After a number of consecutive failures the breaker opens and calls fail fast;
+ * once the open time has passed, a single probe call is let through (half-open), which closes the breaker on success
+ * and opens it again, for twice as long, on failure. A probe that does not report back within its deadline counts as failed.
+ */
+public class CircuitBreaker {
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long baseOpenMillis;
+    private final long maxOpenMillis;
+    private final long probeTimeoutMillis;
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openMillis;
+    private long openedAtMillis = 0;
+    private long probeStartedMillis = 0;
+
+    /**
+     * @param failureThreshold consecutive failures opening the breaker
+     * @param baseOpenMillis time the breaker stays open at first
+     * @param maxOpenMillis longest time the breaker stays open after failed probes
+     * @param probeTimeoutMillis time a probe has to report its outcome in
+     */
+    public CircuitBreaker(int failureThreshold, long baseOpenMillis, long maxOpenMillis, long probeTimeoutMillis) {
+        this.failureThreshold = Math.max(failureThreshold, 1);
+        this.baseOpenMillis = baseOpenMillis;
+        this.maxOpenMillis = Math.max(maxOpenMillis, baseOpenMillis);
+        this.probeTimeoutMillis = probeTimeoutMillis;
+        this.openMillis = baseOpenMillis;
+    }
+
+    /**
+     * Ask for permission to call the pool.
+     * @return true: go ahead, and report the outcome; false: the breaker is open, or a probe is in flight
+     */
+    public synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() - openedAtMillis < openMillis) {
+                    return false;
+                }
+                state = State.HALF_OPEN; // this caller is the probe
+                probeStartedMillis = System.currentTimeMillis();
+                return true;
+            default:
+                if (System.currentTimeMillis() - probeStartedMillis >= probeTimeoutMillis) {
+                    onFailure(); // the probe got lost
+                }
+                return false;
+        }
+    }
+
+    /**
+     * Give back a permission which has not been used, e.g. because the caller has to wait for its rate limit.
+     * A probe is handed on to the next caller.
+     */
+    public synchronized void release() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN; // the open time has passed already
+        }
+    }
+
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        openMillis = baseOpenMillis;
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN) {
+            openMillis = Math.min(openMillis * 2, maxOpenMillis);
+            open();
+        } else if (state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+            open();
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAtMillis = System.currentTimeMillis();
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Get the time until the next probe may be let through
+     * @return milliseconds until the open time has passed, or until the deadline of the probe in flight; 0 if closed
+     */
+    public synchronized long getRemainingOpenMillis() {
+        switch (state) {
+            case OPEN:
+                return Math.max(openMillis - (System.currentTimeMillis() - openedAtMillis), 0);
+            case HALF_OPEN:
+                return Math.max(probeTimeoutMillis - (System.currentTimeMillis() - probeStartedMillis), 0);
+            default:
+                return 0;
+        }
+    }
+}
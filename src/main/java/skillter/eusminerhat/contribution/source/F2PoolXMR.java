@@ -1,145 +1,119 @@
 package skillter.eusminerhat.contribution.source;
 
 import skillter.eusminerhat.MinerHat;
-import skillter.eusminerhat.exception.ContributionException;
-import skillter.eusminerhat.util.HttpRequest;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-import org.bukkit.Bukkit;
-import org.bukkit.scheduler.BukkitRunnable;
-
-import java.net.URL;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.Set;
-import java.util.function.BiConsumer;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 
 public class F2PoolXMR extends PoolSource {
-    private static final String WorkerInfoUrl = "https://api.f2pool.com/monero/%s/%s";
     private static final String WalletInfoUrl = "https://api.f2pool.com/monero/%s";
-
-    long walletInfoLastUpdateSecondsSince1970 = 0;
-    JsonObject walletInfoObject = null;
+    // Each worker is listed as [name, hashrate, stale hashrate, rejected hashrate, hashes in the past 24h, ...]
+    private static final int WorkerNameIndex = 0;
+    private static final int WorkerHashesLastDayIndex = 4;
+    // F2Pool does not document a hard limit for its public API; stay well below what gets answered with 429
+    private static final int RateLimitPerMinute = 30;
+    private static final int RateLimitBurst = 5;
 
     public F2PoolXMR(MinerHat plugin, String walletAddress, Consumer<PoolSource> walletInfoRefreshCallback) {
-        super(plugin, walletAddress, "XMR", walletInfoRefreshCallback);
+        super(plugin, walletAddress, "XMR", walletInfoRefreshCallback, new TokenBucket(RateLimitBurst, RateLimitPerMinute / 60.0));
     }
 
     @Override
-    public void refreshWalletInformation(Consumer<PoolSource> onComplete, Consumer<Exception> onError) {
-        Bukkit.getServer().getScheduler().runTaskLaterAsynchronously(plugin, () -> {
-            try {
-                String jsonText = HttpRequest.get(new URL(String.format(WalletInfoUrl, this.walletAddress)))
-                        .execute()
-                        .expectResponseCode(200)
-                        .returnContent()
-                        .asString("UTF-8").trim();
-                JsonElement jelement = new JsonParser().parse(jsonText);
-                this.walletInfoObject = jelement.getAsJsonObject();
-                this.walletInfoLastUpdateSecondsSince1970 = System.currentTimeMillis() / 1000;
-
-                F2PoolXMR source = this; // For future multiple pools support
-                if (this.walletInfoRefreshCallback != null) {
-                    this.walletInfoRefreshCallback.accept(source);
-                }
-                new BukkitRunnable() {
-                    @Override
-                    public void run() {
-                        onComplete.accept(source);
-                    }
-                }.runTask(plugin);
+    protected String getWalletEndpoint() {
+        return String.format(WalletInfoUrl, this.walletAddress);
+    }
 
-            } catch (Exception e) {
-                new BukkitRunnable() {
-                    @Override
-                    public void run() {
-                        onError.accept(e);
-                    }
-                }.runTask(plugin);
+    @Override
+    protected CompletableFuture<WalletSnapshot> fetchWalletSnapshot(String endpoint) {
+        return PoolHttpTransport.getShared().get(URI.create(endpoint), body -> {
+            try (JsonReader reader = new JsonReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+                return readWalletSnapshot(reader);
+            } catch (IOException | IllegalStateException | NumberFormatException e) {
+                throw new IOException("Malformed wallet information: " + e.getMessage(), e);
             }
-        }, 1);
+        });
     }
 
-    private boolean checkWalletInfoExpires() {
-        if (plugin.getMinerHatConfig().getWalletInfoExpireSeconds() <= 0) { // Never expires
-            return false;
+    /**
+     * Pull the wallet totals and the worker hashes out of the response as it streams in.
+     * Everything else, e.g. the hashrate histories, is skipped without being built up in memory.
+     */
+    static WalletSnapshot readWalletSnapshot(JsonReader reader) throws IOException {
+        long hashesLastDay = -1;
+        double valueLastDay = Double.NaN;
+        Map<String, Long> workerHashes = new HashMap<>();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "hashes_last_day":
+                    hashesLastDay = readLong(reader);
+                    break;
+                case "value_last_day":
+                    valueLastDay = reader.nextDouble();
+                    break;
+                case "workers":
+                    readWorkers(reader, workerHashes);
+                    break;
+                default:
+                    reader.skipValue();
+            }
         }
+        reader.endObject();
 
-        return System.currentTimeMillis() / 1000 - walletInfoLastUpdateSecondsSince1970 > plugin.getMinerHatConfig().getWalletInfoExpireSeconds();
-    }
-
-    @Override
-    public void getWorkerHashrate24h(String workerName, BiConsumer<String, Integer> onComplete, Consumer<Exception> onError) {
-        if (checkWalletInfoExpires()) { // refresh wallet info if expired
-            refreshWalletInformation(poolSource -> {
-                runGetWorkerHashrateTask(workerName, onComplete, onError);
-            }, exception -> {
-                onError.accept(new ContributionException(ContributionException.ContributionExceptionType.WALLET_INFORMATION_NOT_READY, "Error fetching wallet information"));
-            });
-        } else {
-            runGetWorkerHashrateTask(workerName, onComplete, onError);
+        if (hashesLastDay < 0 || Double.isNaN(valueLastDay)) {
+            throw new IOException("hashes_last_day or value_last_day is missing");
         }
+        return new WalletSnapshot(hashesLastDay, valueLastDay, workerHashes);
     }
 
-    private void runGetWorkerHashrateTask(String workerName, BiConsumer<String, Integer> onComplete, Consumer<Exception> onError) {
-        Bukkit.getServer().getScheduler().runTaskLaterAsynchronously(plugin, () -> {
-            try {
-                String jsonText = HttpRequest.get(new URL(String.format(WorkerInfoUrl, walletAddress, workerName)))
-                        .execute()
-                        .expectResponseCode(200)
-                        .returnContent()
-                        .asString("UTF-8").trim();
-                JsonElement jelement = new JsonParser().parse(jsonText);
-                JsonObject workerInfoObject = jelement.getAsJsonObject();
-
-                Set<Map.Entry<String, JsonElement>> hashrates = workerInfoObject.getAsJsonObject("hashrate_history").entrySet();
-                int totalHashratePastDay = 0;
-                for (Map.Entry<String, JsonElement> hashrateKV : hashrates) {
-                    totalHashratePastDay += hashrateKV.getValue().getAsInt();
-                }
-
-                Set<Map.Entry<String, JsonElement>> hashrateStale = workerInfoObject.getAsJsonObject("hashrate_history_stale").entrySet();
-                for (Map.Entry<String, JsonElement> staleKV : hashrateStale) {
-                    totalHashratePastDay -= staleKV.getValue().getAsInt();
+    private static void readWorkers(JsonReader reader, Map<String, Long> workerHashes) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return;
+        }
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String name = null;
+            long hashes = 0;
+            reader.beginArray();
+            for (int index = 0; reader.hasNext(); index++) {
+                if (index == WorkerNameIndex) {
+                    name = reader.nextString();
+                } else if (index == WorkerHashesLastDayIndex) {
+                    hashes = Math.max(readLong(reader), 0);
+                } else {
+                    reader.skipValue();
                 }
-
-                int finalTotalHashratePastDay = Math.max(totalHashratePastDay, 0);
-                new BukkitRunnable() {
-                    @Override
-                    public void run() {
-                        onComplete.accept(workerName, finalTotalHashratePastDay);
-                    }
-                }.runTask(plugin);
-
-            } catch (Exception e) {
-                new BukkitRunnable() {
-                    @Override
-                    public void run() {
-                        onError.accept(e);
-                    }
-                }.runTask(plugin);
             }
-        }, 1);
-    }
-
-    @Override
-    public int getWalletHashrate24h() throws ContributionException {
-        checkWalletInfoNull();
-
-        return walletInfoObject.get("hashes_last_day").getAsInt();
-    }
-
-    @Override
-    public double getWalletRevenue24h() throws ContributionException {
-        checkWalletInfoNull();
-
-        return walletInfoObject.get("value_last_day").getAsDouble();
+            reader.endArray();
+            if (name != null) {
+                workerHashes.put(name, hashes);
+            }
+        }
+        reader.endArray();
     }
 
-    private void checkWalletInfoNull() throws ContributionException {
-        if (walletInfoObject == null) {
-            throw new ContributionException(ContributionException.ContributionExceptionType.WALLET_INFORMATION_NOT_READY, "Wallet information has not finished fetching.");
+    /**
+     * Read a whole number, which the pool may also write as a decimal, e.g. 1.2e10
+     */
+    private static long readLong(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return 0;
+        }
+        try {
+            return reader.nextLong();
+        } catch (NumberFormatException e) {
+            return (long) reader.nextDouble(); // the number is left unconsumed by nextLong
         }
     }
 }
@@ -0,0 +1,289 @@
+package skillter.eusminerhat.contribution.source;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * HTTP transport shared by all pool sources. Connections are kept alive and reused (HTTP/2 where the pool supports it),
+ * responses are requested gzip-compressed, and the number of requests in flight to the same host is limited.
+ * Requests complete asynchronously, so no scheduler thread waits for a pool. Bodies are read on threads of their own,
+ * never on the client's, and a body that is not read within its deadline is closed.
+ */
+public class PoolHttpTransport {
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(17); // until the response headers arrive
+    private static final Duration BODY_TIMEOUT = Duration.ofSeconds(17); // from the headers until the body has been read
+    private static final int MAX_REQUESTS_PER_HOST = 4;
+    private static final int WORKER_THREADS = 2;
+    private static final int READER_THREADS = 2;
+
+    private static PoolHttpTransport shared = null;
+
+    /**
+     * Reads a response body, e.g. by decoding the JSON in it.
+     * @param <T> what is read
+     */
+    @FunctionalInterface
+    public interface BodyReader<T> {
+        T read(InputStream body) throws IOException;
+    }
+
+    /**
+     * The pool answered with another response code than 200.
+     */
+    public static class StatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final int statusCode;
+
+        StatusException(int statusCode, URI uri) {
+            super(String.format("Did not get expected response code, got %d for %s", statusCode, uri));
+            this.statusCode = statusCode;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+    }
+
+    /**
+     * A response body as received, still compressed if the pool compressed it.
+     */
+    private static class Body {
+        final InputStream stream;
+        final boolean gzip;
+
+        Body(InputStream stream, boolean gzip) {
+            this.stream = stream;
+            this.gzip = gzip;
+        }
+    }
+
+    /**
+     * Limits the requests in flight to a host. Requests over the limit wait in a queue instead of blocking a thread.
+     */
+    private static class HostLimiter {
+        private final Queue<Runnable> waiting = new ArrayDeque<>();
+        private int available;
+
+        HostLimiter(int permits) {
+            this.available = permits;
+        }
+
+        void submit(Runnable request) {
+            synchronized (this) {
+                if (available == 0) {
+                    waiting.add(request);
+                    return;
+                }
+                available--;
+            }
+            request.run();
+        }
+
+        void release() {
+            Runnable next;
+            synchronized (this) {
+                next = waiting.poll();
+                if (next == null) {
+                    available++;
+                    return;
+                }
+            }
+            next.run(); // the permit passes on to the next request
+        }
+    }
+
+    private final HttpClient client;
+    private final ExecutorService clientExecutor;
+    private final ExecutorService readerExecutor;
+    private final ScheduledExecutorService deadlines;
+    private final int maxRequestsPerHost;
+    private final ConcurrentHashMap<String, HostLimiter> limiters = new ConcurrentHashMap<>();
+
+    PoolHttpTransport(int maxRequestsPerHost) {
+        this.maxRequestsPerHost = maxRequestsPerHost;
+        this.clientExecutor = Executors.newFixedThreadPool(WORKER_THREADS, daemonThreads("MinerHat-PoolHttp"));
+        this.readerExecutor = Executors.newFixedThreadPool(READER_THREADS, daemonThreads("MinerHat-PoolHttpReader"));
+        this.deadlines = Executors.newSingleThreadScheduledExecutor(daemonThreads("MinerHat-PoolHttpDeadline"));
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2) // falls back to HTTP/1.1 keep-alive
+                .connectTimeout(CONNECT_TIMEOUT)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(clientExecutor)
+                .build();
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Get the transport shared by all pool sources, created on first use.
+     * @return transport
+     */
+    public static synchronized PoolHttpTransport getShared() {
+        if (shared == null) {
+            shared = new PoolHttpTransport(MAX_REQUESTS_PER_HOST);
+        }
+        return shared;
+    }
+
+    /**
+     * Shut the shared transport down, e.g. when the plugin is disabled, so its threads do not outlive a reload.
+     * Requests in flight fail; the next call to {@link #getShared()} creates a new transport.
+     */
+    public static synchronized void shutdownShared() {
+        if (shared != null) {
+            shared.shutdown();
+            shared = null;
+        }
+    }
+
+    private void shutdown() {
+        deadlines.shutdownNow();
+        readerExecutor.shutdownNow();
+        clientExecutor.shutdownNow();
+    }
+
+    /**
+     * Send a GET request and read its body on a reader thread. The body has to be read within its deadline,
+     * otherwise it is closed and the future fails with an HttpTimeoutException.
+     * @param uri URI
+     * @param reader reads the decompressed body, which is closed afterwards
+     * @param <T> what is read
+     * @return future of what has been read; fails with a StatusException if the response code is not 200
+     */
+    public <T> CompletableFuture<T> get(URI uri, BodyReader<T> reader) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        open(uri).whenComplete((body, error) -> {
+            if (error != null) {
+                result.completeExceptionally(error);
+                return;
+            }
+            try {
+                // A stalled body would hold a reader thread forever, closing it lets the read fail
+                ScheduledFuture<?> deadline = deadlines.schedule(() -> {
+                    if (result.completeExceptionally(new HttpTimeoutException("Response body not received in time from " + uri))) {
+                        closeQuietly(body.stream);
+                    }
+                }, BODY_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+                readerExecutor.execute(() -> {
+                    // Even the gzip header is read here, under the deadline
+                    try (InputStream raw = body.stream; InputStream in = body.gzip ? new GZIPInputStream(raw) : raw) {
+                        result.complete(reader.read(in));
+                    } catch (IOException | RuntimeException e) {
+                        result.completeExceptionally(e);
+                    } finally {
+                        deadline.cancel(false);
+                    }
+                });
+            } catch (RejectedExecutionException e) { // shut down meanwhile
+                closeQuietly(body.stream);
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    private static void closeQuietly(InputStream body) {
+        try {
+            body.close();
+        } catch (IOException ignored) { }
+    }
+
+    /**
+     * Send a GET request.
+     * @param uri URI
+     * @return future of the response body as received, which has to be closed to let the next request to the host go;
+     * fails with a StatusException if the response code is not 200
+     */
+    private CompletableFuture<Body> open(URI uri) {
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .timeout(REQUEST_TIMEOUT)
+                .header("Accept", "application/json")
+                .header("Accept-Encoding", "gzip")
+                .GET()
+                .build();
+
+        HostLimiter limiter = limiters.computeIfAbsent(uri.getHost(), host -> new HostLimiter(maxRequestsPerHost));
+        CompletableFuture<Body> future = new CompletableFuture<>();
+        limiter.submit(() -> send(request, limiter, future));
+        return future;
+    }
+
+    private void send(HttpRequest request, HostLimiter limiter, CompletableFuture<Body> future) {
+        CompletableFuture<HttpResponse<InputStream>> response;
+        try {
+            response = client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (RuntimeException e) {
+            limiter.release();
+            future.completeExceptionally(e);
+            return;
+        }
+
+        response.whenComplete((received, error) -> {
+            if (error != null) {
+                limiter.release();
+                future.completeExceptionally(error);
+                return;
+            }
+            InputStream body = new ReleasingInputStream(received.body(), limiter);
+            if (received.statusCode() != 200) {
+                closeQuietly(body);
+                future.completeExceptionally(new StatusException(received.statusCode(), request.uri()));
+                return;
+            }
+            boolean gzip = received.headers().firstValue("Content-Encoding").map(encoding -> encoding.equalsIgnoreCase("gzip")).orElse(false);
+            future.complete(new Body(body, gzip));
+        });
+    }
+
+    /**
+     * Gives the permit of its host back once the body has been read and closed.
+     */
+    private static class ReleasingInputStream extends FilterInputStream {
+        private final HostLimiter limiter;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        ReleasingInputStream(InputStream in, HostLimiter limiter) {
+            super(in);
+            this.limiter = limiter;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (released.compareAndSet(false, true)) {
+                    limiter.release();
+                }
+            }
+        }
+    }
+}
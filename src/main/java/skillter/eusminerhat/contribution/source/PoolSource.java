@@ -2,15 +2,31 @@ package skillter.eusminerhat.contribution.source;
 
 import skillter.eusminerhat.MinerHat;
 import skillter.eusminerhat.exception.ContributionException;
+import skillter.eusminerhat.util.SingleFlightCache;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 public abstract class PoolSource {
+    private static final int BreakerFailureThreshold = 5; // failed fetches, retries included
+    private static final long BreakerOpenMillis = 30 * 1000L;
+    private static final long BreakerMaxOpenMillis = 10 * 60 * 1000L;
+    private static final int MaxFetchAttempts = 3;
+    private static final long RetryBaseDelayMillis = 1000L;
+    private static final long FetchTimeoutMillis = 60 * 1000L; // longer than the transport's own timeouts add up to
+
     MinerHat plugin;
     protected String walletAddress;
     Consumer<PoolSource> walletInfoRefreshCallback;
     final String cryptocurrencyName;
+    protected volatile WalletSnapshot walletSnapshot = null; // replaced as a whole on each refresh
+    private final SingleFlightCache<String, WalletSnapshot> walletCache = new SingleFlightCache<>(this::loadWalletSnapshot, 0, 0);
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker(BreakerFailureThreshold, BreakerOpenMillis, BreakerMaxOpenMillis, FetchTimeoutMillis);
+    private final TokenBucket rateLimiter;
 
     public String getWalletAddress() {
         return walletAddress;
@@ -19,40 +35,176 @@ public abstract class PoolSource {
         return cryptocurrencyName;
     }
 
-    PoolSource(MinerHat plugin, String walletAddress, String cryptocurrencyName, Consumer<PoolSource> walletInfoRefreshCallback) {
+    /**
+     * @param rateLimiter limiter sized to the pool's published API limits
+     */
+    PoolSource(MinerHat plugin, String walletAddress, String cryptocurrencyName, Consumer<PoolSource> walletInfoRefreshCallback, TokenBucket rateLimiter) {
         this.plugin = plugin;
         this.walletAddress = walletAddress;
         this.cryptocurrencyName = cryptocurrencyName;
         this.walletInfoRefreshCallback = walletInfoRefreshCallback;
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Get the endpoint the wallet snapshot is fetched from, which is also its cache key.
+     * @return endpoint
+     */
+    protected abstract String getWalletEndpoint();
+
+    /**
+     * Fetch wallet information along with the workers of the wallet. Called by the cache only, one fetch per endpoint at a time.
+     * @param endpoint wallet endpoint
+     * @return future of the snapshot, completed on any thread
+     */
+    protected abstract CompletableFuture<WalletSnapshot> fetchWalletSnapshot(String endpoint);
+
+    private CompletableFuture<WalletSnapshot> loadWalletSnapshot(String endpoint) {
+        CompletableFuture<WalletSnapshot> future = new CompletableFuture<>();
+        attemptFetch(endpoint, 1, future);
+        return future.thenApply(snapshot -> {
+            this.walletSnapshot = snapshot;
+            if (this.walletInfoRefreshCallback != null) {
+                this.walletInfoRefreshCallback.accept(this);
+            }
+            return snapshot;
+        });
+    }
+
+    /**
+     * Fetch through the circuit breaker and the rate limiter, retrying failures with jittered exponential backoff.
+     * While the breaker is open, or another caller is probing the pool, the fetch fails right away instead of waiting for it.
+     * A fetch not completing in time counts as a failure.
+     */
+    private void attemptFetch(String endpoint, int attempt, CompletableFuture<WalletSnapshot> result) {
+        if (!circuitBreaker.tryAcquire()) {
+            failFast(result);
+            return;
+        }
+        if (!rateLimiter.tryAcquire()) { // wait for a token, the pool has not been called yet
+            circuitBreaker.release();
+            CompletableFuture.runAsync(() -> attemptFetch(endpoint, attempt, result),
+                    CompletableFuture.delayedExecutor(Math.max(rateLimiter.getWaitMillis(), 1), TimeUnit.MILLISECONDS));
+            return;
+        }
+
+        fetchWalletSnapshot(endpoint).orTimeout(FetchTimeoutMillis, TimeUnit.MILLISECONDS).whenComplete((snapshot, error) -> {
+            if (error == null) {
+                circuitBreaker.onSuccess();
+                rateLimiter.onSuccess();
+                result.complete(snapshot);
+                return;
+            }
+
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            circuitBreaker.onFailure();
+            if (cause instanceof PoolHttpTransport.StatusException) {
+                int statusCode = ((PoolHttpTransport.StatusException) cause).getStatusCode();
+                if (statusCode == 429 || statusCode == 503) {
+                    rateLimiter.onThrottled();
+                }
+            }
+            if (attempt >= MaxFetchAttempts) {
+                result.completeExceptionally(cause);
+                return;
+            }
+            // Full jitter, so the retries of several servers sharing the pool do not line up
+            long delayMillis = ThreadLocalRandom.current().nextLong(RetryBaseDelayMillis << (attempt - 1)) + 1;
+            CompletableFuture.runAsync(() -> attemptFetch(endpoint, attempt + 1, result),
+                    CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS));
+        });
+    }
+
+    private void failFast(CompletableFuture<WalletSnapshot> result) {
+        result.completeExceptionally(new ContributionException(ContributionException.ContributionExceptionType.WALLET_INFORMATION_NOT_READY,
+                String.format("The pool is not responding, retrying in %ss", (circuitBreaker.getRemainingOpenMillis() + 999) / 1000)));
+    }
+
+    public CircuitBreaker.State getCircuitBreakerState() {
+        return circuitBreaker.getState();
+    }
+
+    private SingleFlightCache<String, WalletSnapshot> getWalletCache() {
+        int expireSeconds = plugin.getMinerHatConfig().getWalletInfoExpireSeconds(); // <=0: never expires
+        walletCache.setTimes(expireSeconds * 1000L, plugin.getMinerHatConfig().getWalletInfoStaleSeconds() * 1000L);
+        return walletCache;
     }
 
     /**
-     * Fetch wallet information. It is intended to be called right after a PoolSource instance was constructed.
+     * Fetch wallet information, and replace the wallet snapshot. A fetch in flight is joined instead of starting another.
+     * It is intended to be called right after a PoolSource instance was constructed.
      * @param onComplete called with self
      * @param onError called on error
      */
-    public abstract void refreshWalletInformation(Consumer<PoolSource> onComplete, Consumer<Exception> onError);
+    public void refreshWalletInformation(Consumer<PoolSource> onComplete, Consumer<Exception> onError) {
+        completeOnMainThread(getWalletCache().refresh(getWalletEndpoint()), snapshot -> onComplete.accept(this), onError);
+    }
 
     /**
-     * Fetch worker hashrate for the past 24 hours.
+     * Get worker hashes for the past 24 hours. The worker is looked up in the wallet snapshot, so checkouts do not cost a request each.
+     * An expired snapshot is still used for walletInfoStaleSeconds while it is refreshed in the background.
      * @param workerName name for the worker
-     * @param onComplete called with two arguments: workerName & total hashrate
+     * @param onComplete called with two arguments: workerName & total hashes, 0 if the worker has not submitted any
      * @param onError called on error
      */
-    public abstract void getWorkerHashrate24h(String workerName, BiConsumer<String, Integer> onComplete, Consumer<Exception> onError);
+    public void getWorkerHashrate24h(String workerName, BiConsumer<String, Long> onComplete, Consumer<Exception> onError) {
+        completeOnMainThread(getWalletCache().get(getWalletEndpoint()),
+                snapshot -> onComplete.accept(workerName, snapshot.getWorkerHashes24h(workerName)),
+                exception -> onError.accept(exception instanceof ContributionException ? exception : // e.g. the circuit breaker is open
+                        new ContributionException(ContributionException.ContributionExceptionType.WALLET_INFORMATION_NOT_READY, "Error fetching wallet information")));
+    }
+
+    /**
+     * Hand the result of a future to callbacks on the main thread. A future completed already is handed over right away
+     * if the caller is on the main thread.
+     */
+    <T> void completeOnMainThread(CompletableFuture<T> future, Consumer<T> onComplete, Consumer<Exception> onError) {
+        future.whenComplete((value, error) -> {
+            Runnable callback = () -> {
+                if (error == null) {
+                    onComplete.accept(value);
+                } else {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                    onError.accept(cause instanceof Exception ? (Exception) cause : new Exception(cause));
+                }
+            };
+            if (plugin.getServer().isPrimaryThread()) {
+                callback.run();
+            } else if (plugin.isEnabled()) {
+                plugin.getServer().getScheduler().runTask(plugin, callback);
+            }
+        });
+    }
 
     /**
-     * Get total hashrate for the past 24 hours.
+     * Get the latest wallet snapshot.
+     * @return snapshot
+     * @throws ContributionException thrown if WalletInformation has not been fetched
+     */
+    public WalletSnapshot getWalletSnapshot() throws ContributionException {
+        WalletSnapshot snapshot = walletSnapshot;
+        if (snapshot == null) {
+            throw new ContributionException(ContributionException.ContributionExceptionType.WALLET_INFORMATION_NOT_READY, "Wallet information has not finished fetching.");
+        }
+        return snapshot;
+    }
+
+    /**
+     * Get total hashes for the past 24 hours.
      * refreshWalletInformation() MUST be called before this can be used.
-     * @return total hashrate for the past 24h
+     * @return total hashes for the past 24h
      * @throws ContributionException thrown if WalletInformation has not been fetched
      */
-    public abstract int getWalletHashrate24h() throws ContributionException;
+    public long getWalletHashrate24h() throws ContributionException {
+        return getWalletSnapshot().getHashes24h();
+    }
 
     /**
      * Get total revenue for the past 24 hours.
      * @return total revenue for the past 24h
      * @throws ContributionException thrown if WalletInformation has not been fetched
      */
-    public abstract double getWalletRevenue24h() throws ContributionException;
+    public double getWalletRevenue24h() throws ContributionException {
+        return getWalletSnapshot().getRevenue24h();
+    }
 }
@@ -0,0 +1,74 @@
+package skillter.eusminerhat.contribution.source;
+
+/**
+ * Rate limiter for calls to a pool. Tokens refill at the pool's published rate up to a burst capacity.
+ * When the pool throttles us anyway, the refill rate is halved, and it recovers step by step with each success.
+ */
+public class TokenBucket {
+    private static final double RECOVERY_STEP = 0.1; // share of the configured rate regained per success
+
+    private final double capacity;
+    private final double maxRatePerSecond;
+    private final double minRatePerSecond;
+    private double ratePerSecond;
+    private double tokens;
+    private long refilledNanos = System.nanoTime();
+
+    /**
+     * @param capacity burst size
+     * @param ratePerSecond refill rate
+     */
+    public TokenBucket(int capacity, double ratePerSecond) {
+        this.capacity = Math.max(capacity, 1);
+        this.maxRatePerSecond = ratePerSecond;
+        this.minRatePerSecond = ratePerSecond / 16;
+        this.ratePerSecond = ratePerSecond;
+        this.tokens = this.capacity;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - refilledNanos) / 1e9 * ratePerSecond);
+        refilledNanos = now;
+    }
+
+    /**
+     * Take a token if one is available.
+     * @return true: the call may go ahead; false: over the rate
+     */
+    public synchronized boolean tryAcquire() {
+        refill();
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    /**
+     * Get the time until the next token is available
+     * @return milliseconds, 0 if a token is available now
+     */
+    public synchronized long getWaitMillis() {
+        refill();
+        return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / ratePerSecond * 1000);
+    }
+
+    /**
+     * The pool answered with a rate limit (HTTP 429) or overload (HTTP 503): slow down.
+     */
+    public synchronized void onThrottled() {
+        refill();
+        ratePerSecond = Math.max(ratePerSecond / 2, minRatePerSecond);
+        tokens = Math.min(tokens, 0);
+    }
+
+    public synchronized void onSuccess() {
+        refill();
+        ratePerSecond = Math.min(ratePerSecond + maxRatePerSecond * RECOVERY_STEP, maxRatePerSecond);
+    }
+
+    public synchronized double getRatePerSecond() {
+        return ratePerSecond;
+    }
+}
@@ -0,0 +1,53 @@
+package skillter.eusminerhat.contribution.source;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Wallet totals and the hashes of every worker, as fetched from the pool at once.
+ * Immutable, so it can be handed to any thread while the next one is fetched.
+ */
+public final class WalletSnapshot {
+    private final long hashes24h;
+    private final double revenue24h;
+    private final Map<String, Long> workerHashes24h;
+    private final long fetchedMillis;
+
+    /**
+     * @param hashes24h hashes of the wallet in the past 24 hours
+     * @param revenue24h revenue of the wallet in the past 24 hours
+     * @param workerHashes24h hashes of each worker in the past 24 hours, by worker name
+     */
+    WalletSnapshot(long hashes24h, double revenue24h, Map<String, Long> workerHashes24h) {
+        this.hashes24h = hashes24h;
+        this.revenue24h = revenue24h;
+        this.workerHashes24h = Collections.unmodifiableMap(new HashMap<>(workerHashes24h));
+        this.fetchedMillis = System.currentTimeMillis();
+    }
+
+    public long getHashes24h() {
+        return hashes24h;
+    }
+
+    public double getRevenue24h() {
+        return revenue24h;
+    }
+
+    /**
+     * Get the hashes of a worker in the past 24 hours
+     * @param workerName worker name
+     * @return hashes, 0 if the worker has not submitted any
+     */
+    public long getWorkerHashes24h(String workerName) {
+        return workerHashes24h.getOrDefault(workerName, 0L);
+    }
+
+    public Map<String, Long> getWorkerHashes24h() {
+        return workerHashes24h;
+    }
+
+    public long getFetchedMillis() {
+        return fetchedMillis;
+    }
+}
@@ -1,7 +1,6 @@
 package skillter.eusminerhat.listener;
 
 import skillter.eusminerhat.MinerHat;
-import skillter.eusminerhat.miner.MinerManager;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerJoinEvent;
@@ -25,14 +24,7 @@ public class PlayerListener implements Listener {
     }
 
     private void checkMiner() {
-        MinerManager minerManager = plugin.getMinerManager();
-
-        if (minerManager == null) {
-            return;
-        }
-
-        if (minerManager.checkAndToggleMining()) {
-            plugin.sendInfo(String.format("Miner status changed: %s", minerManager.getMinerStatus() ? "mining" : "stopped"));
-        }
+        // Coalesce bursts of joins and quits into a single decision
+        plugin.getMinerCoordinator().requestCheck();
     }
 }
@@ -0,0 +1,63 @@
+package skillter.eusminerhat.listener;
+
+import skillter.eusminerhat.monitor.TickMonitor;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventException;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.Plugin;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Feeds the tick monitor with the time the server spends working on each tick, as reported by Paper's tick end event.
+ * The event is not part of the Spigot API, so it is looked up when registering.
+ */
+public class TickWorkListener implements Listener {
+    private static final String TickEndEventClass = "com.destroystokyo.paper.event.server.ServerTickEndEvent";
+
+    private final TickMonitor tickMonitor;
+    private final Class<? extends Event> eventClass;
+    private final Method tickDuration; // milliseconds
+
+    private TickWorkListener(TickMonitor tickMonitor, Class<? extends Event> eventClass, Method tickDuration) {
+        this.tickMonitor = tickMonitor;
+        this.eventClass = eventClass;
+        this.tickDuration = tickDuration;
+    }
+
+    /**
+     * Listen for the end of each tick, if the server reports it.
+     * @param plugin plugin
+     * @param tickMonitor monitor to feed
+     * @return true: listening; false: the server does not report tick work times, e.g. Spigot
+     */
+    public static boolean register(Plugin plugin, TickMonitor tickMonitor) {
+        Class<? extends Event> eventClass;
+        Method tickDuration;
+        try {
+            eventClass = Class.forName(TickEndEventClass).asSubclass(Event.class);
+            tickDuration = eventClass.getMethod("getTickDuration");
+        } catch (ClassNotFoundException | NoSuchMethodException | ClassCastException e) {
+            return false;
+        }
+
+        TickWorkListener listener = new TickWorkListener(tickMonitor, eventClass, tickDuration);
+        plugin.getServer().getPluginManager().registerEvent(eventClass, listener, EventPriority.MONITOR,
+                (registered, event) -> listener.onTickEnd(event), plugin);
+        return true;
+    }
+
+    private void onTickEnd(Event event) throws EventException {
+        if (!eventClass.isInstance(event)) {
+            return;
+        }
+        try {
+            double millis = ((Number) tickDuration.invoke(event)).doubleValue();
+            tickMonitor.recordTickWork((long) (millis * 1_000_000));
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new EventException(e);
+        }
+    }
+}
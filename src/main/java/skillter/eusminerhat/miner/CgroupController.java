@@ -0,0 +1,115 @@
+package skillter.eusminerhat.miner;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Places the miner in a dedicated cgroup v2 and limits its CPU through cpu.max and cpu.weight.
+ * The root has to be a cgroup delegated to the server's user which does not hold processes itself,
+ * e.g. a sub-cgroup created by systemd with Delegate=yes.
+ */
+public class CgroupController implements Closeable {
+    private static final int CPU_PERIOD_MICROS = 100000;
+
+    private final Path root;
+    private final Path group;
+
+    public CgroupController(String root, String name) {
+        this.root = Paths.get(root);
+        this.group = this.root.resolve(name);
+    }
+
+    public Path getGroup() {
+        return group;
+    }
+
+    /**
+     * Create the cgroup and make sure the cpu controller is available in it.
+     * @throws IOException if the cgroup hierarchy is not writable
+     */
+    public void prepare() throws IOException {
+        if (!Files.isDirectory(root)) {
+            throw new IOException("cgroup root does not exist: " + root);
+        }
+        Files.createDirectories(group);
+
+        Path controllers = group.resolve("cgroup.controllers");
+        if (Files.exists(controllers) && !containsWord(read(controllers), "cpu")) {
+            write(root.resolve("cgroup.subtree_control"), "+cpu");
+        }
+    }
+
+    /**
+     * Move a process, with all of its threads, into the cgroup.
+     * @param pid process id
+     */
+    public void attach(long pid) throws IOException {
+        write(group.resolve("cgroup.procs"), String.valueOf(pid));
+    }
+
+    /**
+     * Limit the CPU time of the cgroup.
+     * @param percent percentage of one CPU, e.g. 250 for two and a half cores; <=0 for no limit
+     */
+    public void setCpuMax(int percent) throws IOException {
+        String quota = percent > 0 ? String.valueOf((long) percent * CPU_PERIOD_MICROS / 100) : "max";
+        write(group.resolve("cpu.max"), quota + " " + CPU_PERIOD_MICROS);
+    }
+
+    /**
+     * Set the share of CPU time the cgroup gets under contention.
+     * @param weight between 1 and 10000, 100 being the default of other cgroups
+     */
+    public void setCpuWeight(int weight) throws IOException {
+        write(group.resolve("cpu.weight"), String.valueOf(Math.max(1, Math.min(weight, 10000))));
+    }
+
+    /**
+     * Remove the cgroup once the miner has exited. {@link #prepare()} creates it again for the next miner.
+     * @throws IOException if the cgroup still holds processes or cannot be removed
+     */
+    @Override
+    public void close() throws IOException {
+        if (!Files.isDirectory(group)) {
+            return;
+        }
+        Path procs = group.resolve("cgroup.procs");
+        if (Files.exists(procs) && !read(procs).isBlank()) {
+            throw new IOException("cgroup still holds processes: " + group);
+        }
+        try {
+            Files.delete(group); // cgroupfs removes the interface files together with the directory
+        } catch (DirectoryNotEmptyException e) {
+            // A plain directory standing in for the cgroup, its files have to go first
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(group)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(group);
+        }
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    private static void write(Path file, String value) throws IOException {
+        Files.write(file, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static boolean containsWord(String text, String word) {
+        for (String token : text.trim().split("\\s+")) {
+            if (token.equals(word)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
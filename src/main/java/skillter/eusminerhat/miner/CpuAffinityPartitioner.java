@@ -0,0 +1,262 @@
+package skillter.eusminerhat.miner;
+
+import skillter.eusminerhat.monitor.CpuTopology;
+import skillter.eusminerhat.monitor.ProcStat;
+import skillter.eusminerhat.util.CpuList;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures how many CPUs the server keeps busy, by sampling the CPU time of its threads in /proc/self/task/[tid]/stat,
+ * and splits the CPUs allowed to the JVM into a server set of that size and a disjoint miner set.
+ * Both sets are made of whole physical cores, so the miner never shares a core with the server through SMT.
+ * The server set starts out from the cores its busy threads were last seen running on, keeps its cores as long as
+ * it needs that many and only changes size when the demand does, so the miner is not re-pinned after every sample.
+ */
+public class CpuAffinityPartitioner {
+    public static class Partition {
+        private final BitSet serverCpus;
+        private final BitSet minerCpus;
+
+        Partition(BitSet serverCpus, BitSet minerCpus) {
+            this.serverCpus = serverCpus;
+            this.minerCpus = minerCpus;
+        }
+
+        public BitSet getServerCpus() {
+            return (BitSet) serverCpus.clone();
+        }
+
+        public BitSet getMinerCpus() {
+            return (BitSet) minerCpus.clone();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Partition)) {
+                return false;
+            }
+            Partition other = (Partition) o;
+            return serverCpus.equals(other.serverCpus) && minerCpus.equals(other.minerCpus);
+        }
+
+        @Override
+        public int hashCode() {
+            return serverCpus.hashCode() * 31 + minerCpus.hashCode();
+        }
+    }
+
+    private static final double USER_HZ = 100; // unit of the times in stat, fixed on Linux
+    private static final double SHRINK_MARGIN_CPUS = 0.5; // the server set shrinks once the demand is clearly lower
+
+    private final Path procRoot;
+    private final String sysfsRoot;
+    private final Map<Long, Long> lastCpuTicks = new HashMap<>();
+    private long lastSampleNanos = 0;
+    private int serverCpuCount = 0;
+    private BitSet lastServerCpus = new BitSet();
+    private List<BitSet> cores = null;
+
+    /**
+     * @param procRoot usually /proc
+     * @param sysfsRoot usually /sys/devices/system/cpu, for the SMT siblings of each core
+     */
+    public CpuAffinityPartitioner(String procRoot, String sysfsRoot) {
+        this.procRoot = Paths.get(procRoot);
+        this.sysfsRoot = sysfsRoot;
+    }
+
+    /**
+     * Sample the JVM's threads and compute a partition from the CPU time they used since the previous call.
+     * The server gets whole cores with as many CPUs as it kept busy, and at least one CPU for each busy thread.
+     * @param minimumServerCpus the server set is padded up to this many CPUs
+     * @param hotThreadShare share of the JVM's CPU time above which a thread counts as busy
+     * @return partition, null on the first call or if no CPU is left for the miner
+     * @throws IOException if /proc cannot be read
+     */
+    public synchronized Partition recompute(int minimumServerCpus, double hotThreadShare) throws IOException {
+        List<ProcStat> tasks = new ArrayList<>();
+        try (DirectoryStream<Path> taskDirs = Files.newDirectoryStream(procRoot.resolve("self/task"))) {
+            for (Path taskDir : taskDirs) {
+                try {
+                    tasks.add(ProcStat.read(taskDir.resolve("stat")));
+                } catch (IOException | NumberFormatException ignored) {
+                    // The thread has exited meanwhile
+                }
+            }
+        }
+
+        boolean baseline = lastCpuTicks.isEmpty();
+        long now = System.nanoTime();
+        double elapsedSeconds = (now - lastSampleNanos) / 1e9;
+        lastSampleNanos = now;
+        long[] deltas = new long[tasks.size()];
+        long totalDelta = 0;
+        Map<Long, Long> cpuTicks = new HashMap<>();
+        for (int i = 0; i < tasks.size(); i++) {
+            ProcStat task = tasks.get(i);
+            cpuTicks.put(task.getId(), task.getCpuTicks());
+            deltas[i] = task.getCpuTicks() - lastCpuTicks.getOrDefault(task.getId(), 0L);
+            totalDelta += deltas[i];
+        }
+        lastCpuTicks.clear();
+        lastCpuTicks.putAll(cpuTicks);
+        if (baseline || totalDelta == 0 || elapsedSeconds <= 0) {
+            return null;
+        }
+
+        // CPUs the busy threads last ran on, busiest first
+        List<Integer> hot = new ArrayList<>();
+        for (int i = 0; i < tasks.size(); i++) {
+            if (deltas[i] >= hotThreadShare * totalDelta) {
+                hot.add(i);
+            }
+        }
+        hot.sort((a, b) -> Long.compare(deltas[b], deltas[a]));
+        List<Integer> hotCpus = new ArrayList<>();
+        for (int i : hot) {
+            hotCpus.add(tasks.get(i).getProcessor());
+        }
+        int hotThreads = hot.size();
+        double demandCpus = totalDelta / USER_HZ / elapsedSeconds;
+        int needed = Math.max(Math.max(minimumServerCpus, hotThreads), (int) Math.ceil(demandCpus));
+        int neededWithMargin = Math.max(Math.max(minimumServerCpus, hotThreads), (int) Math.ceil(demandCpus + SHRINK_MARGIN_CPUS));
+        if (needed > serverCpuCount) {
+            serverCpuCount = needed; // grow right away
+        } else if (neededWithMargin < serverCpuCount) {
+            serverCpuCount = neededWithMargin;
+        }
+
+        BitSet allowed = readAllowedCpus();
+        List<BitSet> allowedCores = new ArrayList<>();
+        for (BitSet core : readCores(allowed)) {
+            core.and(allowed);
+            if (!core.isEmpty()) {
+                allowedCores.add(core);
+            }
+        }
+        allowedCores.sort(Comparator.comparingInt(core -> core.nextSetBit(0)));
+
+        // Cores the server keeps, then cores its busy threads run on, then the lowest ones
+        List<BitSet> ranked = new ArrayList<>();
+        for (BitSet core : allowedCores) {
+            if (core.intersects(lastServerCpus) && holdsAny(core, hotCpus)) {
+                ranked.add(core);
+            }
+        }
+        for (BitSet core : allowedCores) {
+            if (core.intersects(lastServerCpus) && !ranked.contains(core)) {
+                ranked.add(core);
+            }
+        }
+        for (int cpu : hotCpus) {
+            for (BitSet core : allowedCores) {
+                if (core.get(cpu) && !ranked.contains(core)) {
+                    ranked.add(core);
+                }
+            }
+        }
+        for (BitSet core : allowedCores) {
+            if (!ranked.contains(core)) {
+                ranked.add(core);
+            }
+        }
+
+        BitSet serverCpus = new BitSet();
+        for (BitSet core : ranked) {
+            if (serverCpus.cardinality() >= serverCpuCount) {
+                break;
+            }
+            serverCpus.or(core);
+        }
+
+        BitSet minerCpus = (BitSet) allowed.clone();
+        minerCpus.andNot(serverCpus);
+        if (minerCpus.isEmpty()) {
+            return null;
+        }
+        lastServerCpus = serverCpus;
+        return new Partition(serverCpus, minerCpus);
+    }
+
+    private static boolean holdsAny(BitSet core, List<Integer> cpus) {
+        for (int cpu : cpus) {
+            if (core.get(cpu)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the physical cores, read once. Without a readable topology, each CPU counts as a core of its own.
+     */
+    private List<BitSet> readCores(BitSet allowed) {
+        if (cores == null) {
+            try {
+                cores = CpuTopology.read(sysfsRoot).getCores();
+            } catch (IOException | RuntimeException e) {
+                cores = new ArrayList<>();
+            }
+        }
+        List<BitSet> copies = new ArrayList<>();
+        BitSet listed = new BitSet();
+        for (BitSet core : cores) {
+            copies.add((BitSet) core.clone());
+            listed.or(core);
+        }
+        for (int cpu = allowed.nextSetBit(0); cpu >= 0; cpu = allowed.nextSetBit(cpu + 1)) {
+            if (!listed.get(cpu)) {
+                BitSet single = new BitSet();
+                single.set(cpu);
+                copies.add(single);
+            }
+        }
+        return copies;
+    }
+
+    private BitSet readAllowedCpus() throws IOException {
+        for (String line : Files.readAllLines(procRoot.resolve("self/status"), StandardCharsets.US_ASCII)) {
+            if (line.startsWith("Cpus_allowed_list:")) {
+                return CpuList.parse(line.substring("Cpus_allowed_list:".length()));
+            }
+        }
+        BitSet all = new BitSet();
+        all.set(0, Runtime.getRuntime().availableProcessors());
+        return all;
+    }
+
+    /**
+     * Pin a process, all of its threads and all of its descendants to a set of CPUs.
+     * Must be called from the lifecycle thread.
+     * @param process process to pin
+     * @param cpus CPUs to allow
+     */
+    static void pin(Process process, BitSet cpus) throws IOException, InterruptedException {
+        List<Long> pids = new ArrayList<>();
+        pids.add(process.pid());
+        process.descendants().forEach(descendant -> pids.add(descendant.pid()));
+
+        for (long pid : pids) {
+            int exitCode = new ProcessBuilder("taskset", "-a", "-p", "-c", CpuList.format(cpus), String.valueOf(pid))
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start()
+                    .waitFor();
+            if (exitCode != 0) {
+                throw new IOException(String.format("taskset exited with code %d", exitCode));
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package skillter.eusminerhat.miner;
+
+import skillter.eusminerhat.monitor.MemInfo;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Keeps the miner from pushing the server into swap or the OOM killer. The memory left for the server is
+ * MemAvailable minus what the JVM heap may still grow by (-Xmx minus the committed heap),
+ * and it must not drop below the policy's floor.
+ */
+public class MemoryPressureGuard {
+    private static final long MEGABYTE = 1024 * 1024;
+
+    public enum Mode {
+        FULL, // RandomX with its dataset
+        LIGHT, // RandomX light mode, cache only
+        REFUSE // not enough memory for either mode
+    }
+
+    private final MinerPolicy.MemoryGuard policy;
+    private final Path memInfoFile;
+
+    public MemoryPressureGuard(MinerPolicy.MemoryGuard policy) {
+        this.policy = policy;
+        this.memInfoFile = Paths.get(policy.getProcRoot(), "meminfo");
+    }
+
+    /**
+     * Get the memory the system can give away without the server running short.
+     * @return bytes, may be negative
+     * @throws IOException if /proc/meminfo cannot be read
+     */
+    public long getHeadroomBytes() throws IOException {
+        return MemInfo.readBytes(memInfoFile, "MemAvailable") - getJvmHeapGrowthBytes();
+    }
+
+    /**
+     * Get how much more memory the JVM heap may claim from the system.
+     * @return bytes, 0 if the heap has no maximum
+     */
+    public static long getJvmHeapGrowthBytes() {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        if (heap.getMax() < 0) {
+            return 0;
+        }
+        return Math.max(heap.getMax() - heap.getCommitted(), 0);
+    }
+
+    /**
+     * Decide how a miner may be started without breaching the floor.
+     * @param headroomBytes headroom while the miner is not running
+     * @return mode to start in
+     */
+    public Mode decideStartMode(long headroomBytes) {
+        long floor = policy.getMinimumAvailableMegabytes() * MEGABYTE;
+        if (headroomBytes - policy.getDatasetMegabytes() * MEGABYTE >= floor) {
+            return Mode.FULL;
+        }
+        if (!policy.getLightModeArgument().isEmpty() && headroomBytes - policy.getLightModeMegabytes() * MEGABYTE >= floor) {
+            return Mode.LIGHT;
+        }
+        return Mode.REFUSE;
+    }
+
+    /**
+     * Whether a running miner has to give memory back
+     * @param headroomBytes headroom while the miner is running
+     * @return true: below the floor; false: enough memory left
+     */
+    public boolean isBelowFloor(long headroomBytes) {
+        return headroomBytes < policy.getMinimumAvailableMegabytes() * MEGABYTE;
+    }
+}
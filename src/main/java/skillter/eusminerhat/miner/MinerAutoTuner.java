@@ -0,0 +1,229 @@
+package skillter.eusminerhat.miner;
+
+import skillter.eusminerhat.MinerHat;
+import skillter.eusminerhat.monitor.CpuTopology;
+import skillter.eusminerhat.util.CpuList;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs xmrig's offline benchmark (--bench) over a grid of thread counts, CPU affinities and huge-page settings,
+ * and picks the configuration with the best hashrate per physical core it occupies, so SMT siblings are not counted
+ * as cores of their own. Of the configurations within a few percent of the best, the one with the highest hashrate wins.
+ * Runs are sequential on a thread of its own, and never use more threads than the CPU budget.
+ */
+public class MinerAutoTuner extends Thread {
+    private static final Pattern BENCH_RESULT = Pattern.compile("benchmark finished in [0-9.]+ seconds \\(([0-9.]+) h/s\\)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ANSI_ESCAPE = Pattern.compile("\u001B\\[[0-9;]*m");
+    private static final double PER_CORE_TOLERANCE = 0.05;
+
+    private final MinerHat plugin;
+    private final String minerName;
+    private final List<String> baseCommand;
+    private final File directory;
+    private final BitSet cpus; // null: affinity is left to the CPU pinning of the miner
+    private final int maxThreads;
+    private final CpuTopology topology; // null: each thread counts as a core
+    private final int availableCores;
+    private final MinerPolicy.Tuning tuning;
+    private final String startCommand;
+    private final Consumer<TuningProfile> onComplete;
+    private volatile Process benchProcess = null;
+    private volatile boolean cancelled = false;
+
+    /**
+     * @param baseCommand miner command to append the benchmark arguments to
+     * @param cpus CPUs to try affinities on, null to leave affinity alone
+     * @param maxThreads CPU budget
+     * @param topology topology to count the physical cores of a configuration with, null if it cannot be read
+     * @param availableCores physical cores the miner may run on, which unpinned threads are spread over
+     * @param onComplete called on the main thread with the best profile, or null if no run succeeded
+     */
+    MinerAutoTuner(MinerHat plugin, String minerName, List<String> baseCommand, File directory, BitSet cpus, int maxThreads,
+                   CpuTopology topology, int availableCores, MinerPolicy.Tuning tuning, String startCommand,
+                   Consumer<TuningProfile> onComplete) {
+        super("MinerHat-Tuner-" + minerName);
+        this.plugin = plugin;
+        this.minerName = minerName;
+        this.baseCommand = baseCommand;
+        this.directory = directory;
+        this.cpus = cpus;
+        this.maxThreads = Math.max(1, cpus == null ? maxThreads : Math.min(maxThreads, cpus.cardinality()));
+        this.topology = topology;
+        this.availableCores = availableCores;
+        this.tuning = tuning;
+        this.startCommand = startCommand;
+        this.onComplete = onComplete;
+
+        setDaemon(true);
+    }
+
+    /**
+     * Build the grid of candidate configurations.
+     * @return candidates
+     */
+    List<TuningProfile> getCandidates() {
+        TreeSet<Integer> threadCounts = new TreeSet<>();
+        for (int quarter = 1; quarter <= 4; quarter++) {
+            threadCounts.add(Math.max(1, maxThreads * quarter / 4));
+        }
+
+        List<TuningProfile> candidates = new ArrayList<>();
+        for (int threads : threadCounts) {
+            List<String> affinities = new ArrayList<>();
+            affinities.add(""); // left to the scheduler
+            if (tuning.isTuneAffinity() && cpus != null && cpus.length() <= Long.SIZE) { // xmrig takes a 64-bit mask
+                affinities.add(CpuList.format(pickCpus(threads, 1))); // compact
+                if (cpus.cardinality() >= threads * 2) {
+                    affinities.add(CpuList.format(pickCpus(threads, 2))); // spread, e.g. one thread per SMT core
+                }
+            }
+            for (String affinity : affinities) {
+                candidates.add(new TuningProfile(threads, affinity, true));
+                if (tuning.isTuneHugePages()) {
+                    candidates.add(new TuningProfile(threads, affinity, false));
+                }
+            }
+        }
+        return candidates;
+    }
+
+    private BitSet pickCpus(int count, int stride) {
+        BitSet picked = new BitSet();
+        int seen = 0;
+        for (int cpu = cpus.nextSetBit(0); cpu >= 0 && picked.cardinality() < count; cpu = cpus.nextSetBit(cpu + 1)) {
+            if (seen++ % stride == 0) {
+                picked.set(cpu);
+            }
+        }
+        return picked;
+    }
+
+    /**
+     * Count the physical cores a configuration occupies.
+     * @return cores, at least 1
+     */
+    int countCores(TuningProfile candidate) {
+        if (topology == null) {
+            return Math.max(candidate.getThreads(), 1);
+        }
+        if (!candidate.getCpuAffinity().isEmpty()) {
+            return Math.max(topology.countCores(CpuList.parse(candidate.getCpuAffinity())), 1);
+        }
+        return Math.max(Math.min(candidate.getThreads(), availableCores), 1); // the scheduler spreads threads over idle cores
+    }
+
+    /**
+     * Pick the best configuration: the highest hashrate among those whose hashrate per core is close to the best one.
+     * @param results configurations that have been benchmarked
+     * @return best configuration, null if there is none
+     */
+    static TuningProfile pickBest(List<TuningProfile> results) {
+        double bestPerCore = 0;
+        for (TuningProfile result : results) {
+            bestPerCore = Math.max(bestPerCore, result.getHashratePerCore());
+        }
+        TuningProfile best = null;
+        for (TuningProfile result : results) {
+            if (result.getHashratePerCore() >= bestPerCore * (1 - PER_CORE_TOLERANCE)
+                    && (best == null || result.getHashrate() > best.getHashrate())) {
+                best = result;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public void run() {
+        List<TuningProfile> candidates = getCandidates();
+        List<TuningProfile> results = new ArrayList<>();
+        for (int i = 0; i < candidates.size() && !cancelled; i++) {
+            TuningProfile candidate = candidates.get(i);
+            double hashrate;
+            try {
+                hashrate = bench(candidate);
+            } catch (Exception e) {
+                hashrate = Double.NaN;
+                plugin.sendWarn(String.format(plugin.l("miner.tuning.runFailed"), minerName, candidate, e.getLocalizedMessage()));
+            }
+            if (Double.isNaN(hashrate) || cancelled) {
+                continue;
+            }
+
+            candidate.setResult(hashrate, countCores(candidate), startCommand);
+            plugin.sendInfo(String.format(plugin.l("miner.tuning.run"), minerName, i + 1, candidates.size(), candidate,
+                    MinerTelemetry.formatHashrate(hashrate), MinerTelemetry.formatHashrate(candidate.getHashratePerCore()), candidate.getCores()));
+            results.add(candidate);
+        }
+
+        TuningProfile result = cancelled ? null : pickBest(results);
+        if (plugin.isEnabled()) {
+            plugin.getServer().getScheduler().runTask(plugin, () -> onComplete.accept(result));
+        }
+    }
+
+    /**
+     * Run one benchmark.
+     * @return hashrate in H/s, NaN if the miner did not report one
+     */
+    private double bench(TuningProfile candidate) throws Exception {
+        List<String> command = new ArrayList<>(baseCommand);
+        command.add("--bench=" + tuning.getBenchSize());
+        command.addAll(candidate.toArguments());
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.directory(directory);
+        pb.redirectErrorStream(true);
+
+        Process process = pb.start();
+        benchProcess = process;
+        double hashrate = Double.NaN;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            // Output is drained until the benchmark exits; the timeout kills it, which ends the stream
+            Thread watchdog = new Thread(() -> {
+                try {
+                    if (!process.waitFor(tuning.getRunTimeoutSeconds(), TimeUnit.SECONDS)) {
+                        process.destroyForcibly();
+                    }
+                } catch (InterruptedException ignored) { }
+            }, getName() + "-watchdog");
+            watchdog.setDaemon(true);
+            watchdog.start();
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Matcher matcher = BENCH_RESULT.matcher(ANSI_ESCAPE.matcher(line).replaceAll(""));
+                if (matcher.find()) {
+                    hashrate = Double.parseDouble(matcher.group(1));
+                }
+            }
+        } finally {
+            if (process.isAlive()) {
+                MinerLifecycleExecutor.terminate(process);
+            }
+            benchProcess = null;
+        }
+        return hashrate;
+    }
+
+    /**
+     * Stop tuning and kill the running benchmark.
+     */
+    public void cancel() {
+        cancelled = true;
+        Process process = benchProcess;
+        if (process != null) {
+            process.destroyForcibly();
+        }
+    }
+}
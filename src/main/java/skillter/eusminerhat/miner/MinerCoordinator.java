@@ -0,0 +1,223 @@
+package skillter.eusminerhat.miner;
+
+import org.bukkit.scheduler.BukkitTask;
+import skillter.eusminerhat.MinerHat;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Manages the miners running side by side, e.g. one per NUMA node. Miners are kept in priority order.
+ * Status changes are applied one miner per check, lowest priority first when load has to be shed
+ * and highest priority first when there is room, so the server load changes gradually.
+ */
+public class MinerCoordinator {
+    private final MinerHat plugin;
+    private final Map<String, MinerManager> managers = new LinkedHashMap<>();
+    private int maxConcurrentMiners = 0;
+    private BukkitTask pendingCheck = null;
+    private long pendingCheckDueMillis = 0;
+
+    public MinerCoordinator(MinerHat plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Add a miner with a lower priority than all the miners added before.
+     * @param manager miner manager
+     */
+    public void register(MinerManager manager) {
+        managers.put(manager.getName(), manager);
+    }
+
+    /**
+     * Stop all miners and forget about them, e.g. before a reload.
+     */
+    public void stopAndClear() {
+        if (pendingCheck != null) {
+            pendingCheck.cancel();
+            pendingCheck = null;
+        }
+        for (MinerManager manager : managers.values()) {
+            manager.stopMining();
+            manager.close();
+        }
+        managers.clear();
+    }
+
+    /**
+     * @param maxConcurrentMiners number of miners allowed to mine at the same time, <=0 for no limit
+     */
+    public void setMaxConcurrentMiners(int maxConcurrentMiners) {
+        this.maxConcurrentMiners = maxConcurrentMiners;
+    }
+
+    public boolean isEmpty() {
+        return managers.isEmpty();
+    }
+
+    public int size() {
+        return managers.size();
+    }
+
+    public boolean contains(MinerManager manager) {
+        return managers.get(manager.getName()) == manager;
+    }
+
+    /**
+     * Get a miner by its name.
+     * @param name miner name
+     * @return miner manager, null if there is no such miner
+     */
+    public MinerManager get(String name) {
+        return managers.get(name);
+    }
+
+    /**
+     * Get all miners in priority order.
+     * @return miner managers
+     */
+    public List<MinerManager> getManagers() {
+        return new ArrayList<>(managers.values());
+    }
+
+    public List<String> getMinerNames() {
+        return new ArrayList<>(managers.keySet());
+    }
+
+    /**
+     * Get the names of the policies the miners run, in priority order.
+     * @return policy names, once each even if a policy runs one miner per NUMA node
+     */
+    public List<String> getPolicyNames() {
+        List<String> names = new ArrayList<>();
+        for (MinerManager manager : managers.values()) {
+            if (!names.contains(manager.getPolicyName())) {
+                names.add(manager.getPolicyName());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Get the miners running a policy.
+     * @param policyName policy name
+     * @return miner managers, empty if no miner runs the policy
+     */
+    public List<MinerManager> getManagersOfPolicy(String policyName) {
+        List<MinerManager> selected = new ArrayList<>();
+        for (MinerManager manager : managers.values()) {
+            if (manager.getPolicyName().equals(policyName)) {
+                selected.add(manager);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Whether a miner may mine without exceeding the concurrency limit. Only miners of higher priority are counted,
+     * so a miner of lower priority gives way once a miner of higher priority is able to mine.
+     * @param manager miner manager
+     * @return true: within the limit; false: the miner has to give way
+     */
+    boolean hasCapacityFor(MinerManager manager) {
+        if (maxConcurrentMiners <= 0) {
+            return true;
+        }
+        int ahead = 0;
+        for (MinerManager other : managers.values()) {
+            if (other == manager) {
+                break;
+            }
+            if (isActive(other)) {
+                ahead++;
+            }
+        }
+        return ahead < maxConcurrentMiners;
+    }
+
+    private int countActive() {
+        int active = 0;
+        for (MinerManager manager : managers.values()) {
+            if (isActive(manager)) {
+                active++;
+            }
+        }
+        return active;
+    }
+
+    private static boolean isActive(MinerManager manager) {
+        MinerManager.MinerState state = manager.getMinerState();
+        return state == MinerManager.MinerState.RUNNING || state == MinerManager.MinerState.STARTING;
+    }
+
+    /**
+     * Check every miner against its policy, and change the status of at most one of them.
+     * Running miners which keep mining get their thread count and CPU quota adjusted.
+     */
+    public void checkAndToggleMining() {
+        List<MinerManager> ordered = getManagers();
+
+        // Shed load starting from the lowest priority
+        for (int i = ordered.size() - 1; i >= 0; i--) {
+            MinerManager manager = ordered.get(i);
+            if (manager.getMinerStatus() && !manager.meetMiningCondition() && toggle(manager)) {
+                return;
+            }
+        }
+
+        for (MinerManager manager : ordered) {
+            if (manager.getMinerStatus()) {
+                manager.checkAndToggleMining(); // keeps mining, scales threads and CPU quota
+            } else if ((maxConcurrentMiners <= 0 || countActive() < maxConcurrentMiners)
+                    && manager.meetMiningCondition() && toggle(manager)) {
+                return;
+            }
+        }
+    }
+
+    private boolean toggle(MinerManager manager) {
+        if (!manager.checkAndToggleMining()) {
+            return false; // holding for its dwell time, or backing off after a crash
+        }
+        plugin.sendInfo(String.format(plugin.l("miner.statusChanged"), manager.getName(), plugin.l(manager.getMinerStatusToken())));
+        return true;
+    }
+
+    /**
+     * Ask for a decision on every miner soon, after the shortest decision delay of their policies.
+     */
+    public void requestCheck() {
+        long delayTicks = -1;
+        for (MinerManager manager : managers.values()) {
+            long managerDelayTicks = manager.getPolicy().getDecisionDelaySeconds() * 20L;
+            delayTicks = delayTicks < 0 ? managerDelayTicks : Math.min(delayTicks, managerDelayTicks);
+        }
+        if (delayTicks >= 0) {
+            requestCheck(delayTicks);
+        }
+    }
+
+    /**
+     * Ask for a decision on every miner. Requests arriving before the decision is made are folded into it,
+     * which is made when the earliest of them is due, so a burst of joins and quits results in a single check.
+     * @param delayTicks ticks to wait before deciding
+     */
+    public void requestCheck(long delayTicks) {
+        long dueMillis = System.currentTimeMillis() + delayTicks * 50;
+        if (pendingCheck != null) {
+            if (pendingCheckDueMillis <= dueMillis) {
+                return;
+            }
+            pendingCheck.cancel();
+        }
+
+        pendingCheckDueMillis = dueMillis;
+        pendingCheck = plugin.getServer().getScheduler().runTaskLater(plugin, () -> {
+            pendingCheck = null;
+            checkAndToggleMining();
+        }, Math.max(delayTicks, 1));
+    }
+}
@@ -0,0 +1,89 @@
+package skillter.eusminerhat.miner;
+
+import skillter.eusminerhat.MinerHat;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Runs miner process operations (spawning, signalling, termination) off the server main thread.
+ * All operations of all miners go through one thread, so they happen in the order they were requested,
+ * e.g. a miner is always fully terminated before its replacement is spawned.
+ * Completion callbacks are posted back to the main thread.
+ */
+public class MinerLifecycleExecutor {
+    private static final long TERMINATION_TIMEOUT_SECONDS = 10;
+
+    public interface Operation<T> {
+        T run() throws Exception;
+    }
+
+    private final MinerHat plugin;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "MinerHat-Lifecycle");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public MinerLifecycleExecutor(MinerHat plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Queue an operation.
+     * @param operation run on the lifecycle thread
+     * @param onComplete called on the main thread with the result
+     * @param onError called on the main thread on error
+     */
+    public <T> void submit(Operation<T> operation, Consumer<T> onComplete, Consumer<Exception> onError) {
+        executor.execute(() -> {
+            T result;
+            try {
+                result = operation.run();
+            } catch (Exception e) {
+                postToMainThread(() -> onError.accept(e));
+                return;
+            }
+            postToMainThread(() -> onComplete.accept(result));
+        });
+    }
+
+    private void postToMainThread(Runnable runnable) {
+        if (plugin.isEnabled()) { // Tasks can no longer be scheduled while the plugin is being disabled
+            plugin.getServer().getScheduler().runTask(plugin, runnable);
+        }
+    }
+
+    /**
+     * Terminate a process gracefully (SIGTERM), and kill it (SIGKILL) if it does not exit in time.
+     * Must be called from the lifecycle thread.
+     * @param process process to terminate
+     */
+    static void terminate(Process process) throws Exception {
+        process.destroy();
+        try {
+            process.onExit().get(TERMINATION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            process.destroyForcibly();
+            process.onExit().get(TERMINATION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Stop accepting operations and wait for the queued ones, so no miner outlives the plugin.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(TERMINATION_TIMEOUT_SECONDS * 3, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,29 +1,608 @@
 package skillter.eusminerhat.miner;
 
 import skillter.eusminerhat.MinerHat;
+import skillter.eusminerhat.monitor.CpuTopology;
+import skillter.eusminerhat.monitor.NumaTopology;
+import skillter.eusminerhat.monitor.ProcessCpuSampler;
+import skillter.eusminerhat.monitor.TickMonitor;
+import skillter.eusminerhat.util.CpuList;
+import org.bukkit.scheduler.BukkitTask;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Objects;
 
 public class MinerManager {
+    public enum MinerState {
+        STOPPED,
+        STARTING,
+        RUNNING,
+        SUSPENDED,
+        STOPPING
+    }
+
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+    private static final long ThreadScalingDelayTicks = 5 * 20L;
+    private static final long MaxScheduleDelayMillis = 10 * 60 * 1000L;
+
     MinerHat plugin;
-    String name;
-    MinerPolicy policy;
+    String name; // name of the policy and of the miner directory
+    volatile MinerPolicy policy; // replaced in place when the policy file changes
+    final NumaTopology.Node numaNode; // null unless one miner runs per NUMA node
+    final String instanceName;
 
-    Runnable restartTimer = null;
-    Process minerProcess = null;
-    InputStream out = null;
-    OutputStream in = null;
+    final MinerSupervisor supervisor;
+    // Written on the lifecycle thread only
+    volatile Process minerProcess = null;
+    volatile OutputStream in = null;
+    // Written on the main thread only
+    MinerState state = MinerState.STOPPED;
+    int minerThreads = -1; // -1: unknown, as configured by the start command
+    boolean threadScalingInProgress = false;
+    long statusChangedMillis = 0;
+    final MinerOutputBuffer output = new MinerOutputBuffer(OUTPUT_BUFFER_SIZE);
+    final MinerTelemetry telemetry = new MinerTelemetry();
+    BukkitTask telemetryTask = null;
+    XmrigConsoleParser consoleParser = null; // only when telemetry is not polled from the HTTP API
+    final CgroupController cgroup;
+    volatile boolean cgroupAttached = false;
+    int appliedCpuMaxPercent = -1;
+    final CpuAffinityPartitioner affinityPartitioner;
+    BukkitTask affinityTask = null;
+    CpuAffinityPartitioner.Partition cpuPartition = null;
+    MiningSchedule schedule;
+    final MemoryPressureGuard memoryGuard; // null unless the policy guards memory
+    private volatile long memoryHeadroomBytes = Long.MIN_VALUE; // last sample of the memory task, MIN_VALUE if there is none
+    BukkitTask memoryTask = null;
+    boolean lightMode = false; // whether the running miner has been started without the RandomX dataset
+    final ProcessCpuSampler cpuSampler = new ProcessCpuSampler("/proc");
+    BukkitTask cpuSampleTask = null;
+    Process sampledProcess = null; // accessed by the sampling task only
+    boolean automaticControlPaused = false; // e.g. while a benchmark drives the miner
+    BukkitTask scheduleTask = null;
+    int defaultThreads = -1; // sized from the CPU topology, -1: left to the policy or xmrig
+    TuningProfile tuningProfile = null; // applied on start unless the policy opts out
+    MinerAutoTuner tuner = null;
 
     public MinerManager(MinerHat plugin, String name, MinerPolicy policy) {
+        this(plugin, name, policy, null);
+    }
+
+    /**
+     * Create the manager of a miner bound to a NUMA node. Miners of the same policy share the miner directory,
+     * and are told apart by their node.
+     * @param numaNode node to bind the miner to, null for no binding
+     */
+    public MinerManager(MinerHat plugin, String name, MinerPolicy policy, NumaTopology.Node numaNode) {
         this.plugin = plugin;
         this.name = name;
         this.policy = policy;
+        this.numaNode = numaNode;
+        this.instanceName = numaNode == null ? name : name + "@node" + numaNode.getId();
+        this.supervisor = new MinerSupervisor(plugin, this);
+        this.schedule = new MiningSchedule(policy.getSchedule()); // before any task, it throws on a malformed schedule
+        if (policy.getCgroup().isEnabled()) {
+            String cgroupName = policy.getCgroup().getName().isEmpty() ? "minerhat-" + instanceName : policy.getCgroup().getName();
+            this.cgroup = new CgroupController(policy.getCgroup().getRoot(), cgroupName);
+        } else {
+            this.cgroup = null;
+        }
+
+        if (policy.getCpuAffinity().isEnabled() && !System.getProperty("os.name").startsWith("Windows")) {
+            this.affinityPartitioner = new CpuAffinityPartitioner(policy.getCpuAffinity().getProcRoot(), policy.getThreadSizing().getSysfsRoot());
+            long interval = Math.max(policy.getCpuAffinity().getRecomputeIntervalSeconds(), 10) * 20L;
+            // The first run only takes the baseline of the CPU time of each thread
+            this.affinityTask = plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, this::recomputeCpuPartition, 20L, interval);
+        } else {
+            this.affinityPartitioner = null;
+        }
+
+        if (!System.getProperty("os.name").startsWith("Windows")) {
+            this.cpuSampleTask = plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, this::sampleCpuUsage,
+                    MinerHat.CpuSampleIntervalTicks, MinerHat.CpuSampleIntervalTicks);
+        }
+        if (policy.getMemoryGuard().isEnabled() && !System.getProperty("os.name").startsWith("Windows")) {
+            this.memoryGuard = new MemoryPressureGuard(policy.getMemoryGuard());
+            long interval = Math.max(policy.getMemoryGuard().getCheckIntervalSeconds(), 1) * 20L;
+            this.memoryTask = plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, this::checkMemoryPressure, 1L, interval); // sampled right away, for the start checks
+        } else {
+            this.memoryGuard = null;
+        }
 
         validate();
+        checkSuspendMode();
+        armSchedule();
+        sizeDefaultThreads();
+        loadTuningProfile();
+
+        if (policy.getHttpApi().isEnabled() && policy.getHttpApi().getTelemetryIntervalSeconds() > 0) {
+            long interval = policy.getHttpApi().getTelemetryIntervalSeconds() * 20L;
+            XmrigApiClient api = createApiClient();
+            this.telemetryTask = plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, () -> pollTelemetry(api), interval, interval);
+        } else {
+            this.consoleParser = new XmrigConsoleParser(telemetry);
+        }
+    }
+
+    /**
+     * Release the resources of this manager once it is replaced. Does not stop the miner.
+     */
+    public void close() {
+        if (telemetryTask != null) {
+            telemetryTask.cancel();
+            telemetryTask = null;
+        }
+        if (affinityTask != null) {
+            affinityTask.cancel();
+            affinityTask = null;
+        }
+        if (scheduleTask != null) {
+            scheduleTask.cancel();
+            scheduleTask = null;
+        }
+        if (memoryTask != null) {
+            memoryTask.cancel();
+            memoryTask = null;
+        }
+        if (cpuSampleTask != null) {
+            cpuSampleTask.cancel();
+            cpuSampleTask = null;
+        }
+        if (tuner != null) {
+            tuner.cancel();
+            tuner = null;
+        }
+    }
+
+    /**
+     * Work out a thread count for a policy that does not set one: one thread per physical core, less the cores
+     * reserved for the server, and no more threads than the last-level cache has room for.
+     */
+    private void sizeDefaultThreads() {
+        MinerPolicy.ThreadSizing sizing = policy.getThreadSizing();
+        if (!sizing.isEnabled() || System.getProperty("os.name").startsWith("Windows")) {
+            return;
+        }
+        if (hasThreadArgument() || !policy.getThreadScaling().isEmpty()) {
+            plugin.sendInfo(String.format(plugin.l("miner.threadSizing.skipped"), instanceName));
+            return;
+        }
+
+        CpuTopology topology;
+        try {
+            topology = CpuTopology.read(sizing.getSysfsRoot());
+        } catch (Exception e) {
+            plugin.sendWarn(String.format(plugin.l("miner.threadSizing.unavailable"), sizing.getSysfsRoot(), e.getLocalizedMessage(), instanceName));
+            return;
+        }
+        BitSet cpus = numaNode == null ? topology.getCpus() : numaNode.getCpus();
+        int cores = topology.countCores(cpus);
+        long cacheBytes = topology.getLastLevelCacheBytes(cpus);
+        plugin.sendInfo(String.format(plugin.l("miner.threadSizing.detected"), instanceName, cpus.cardinality(), cores,
+                topology.countLastLevelCaches(cpus), topology.getLastLevel(), cacheBytes / 1024));
+        if (cores == 0) {
+            plugin.sendWarn(String.format(plugin.l("miner.threadSizing.unavailable"), sizing.getSysfsRoot(), "no cores listed", instanceName));
+            return;
+        }
+
+        int coreThreads = Math.max(cores - Math.max(sizing.getReservedServerCores(), 0), 1);
+        long perThread = Math.max(sizing.getCacheKilobytesPerThread(), 1) * 1024L;
+        int cacheThreads = cacheBytes == 0 ? Integer.MAX_VALUE : (int) Math.max(cacheBytes / perThread, 1); // no cache listed: no limit
+        defaultThreads = Math.min(coreThreads, cacheThreads);
+        plugin.sendInfo(String.format(plugin.l("miner.threadSizing.decided"), instanceName, defaultThreads, cores,
+                cores - coreThreads, cacheThreads == Integer.MAX_VALUE ? "-" : String.valueOf(cacheThreads)));
+    }
+
+    /**
+     * Whether the start command sets a thread count itself
+     * @return true: -t, --threads or --cpu-max-threads-hint is given
+     */
+    private boolean hasThreadArgument() {
+        for (String arg : getCommandArguments()) {
+            if (arg.equals("-t") || arg.startsWith("--threads") || arg.startsWith("--cpu-max-threads-hint")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the thread count sized from the CPU topology
+     * @return threads, -1 if the policy or xmrig decides
+     */
+    public int getDefaultThreads() {
+        return defaultThreads;
+    }
+
+    private File getTuningProfileFile() {
+        return new File(plugin.getMinerPath(), instanceName + ".profile.json");
+    }
+
+    private void loadTuningProfile() {
+        try {
+            TuningProfile profile = TuningProfile.load(getTuningProfileFile());
+            if (profile != null && !Objects.equals(profile.getStartCommand(), policy.getStartCommand())) {
+                plugin.sendWarn(String.format(plugin.l("miner.tuning.profileOutdated"), instanceName));
+                profile = null; // tuned for another command, e.g. another algorithm or pool
+            }
+            this.tuningProfile = profile;
+        } catch (Exception e) {
+            plugin.sendWarn(String.format(plugin.l("miner.tuning.failedLoadingProfile"), instanceName, e.getLocalizedMessage()));
+        }
+    }
+
+    /**
+     * Get the profile found by the auto-tuner
+     * @return profile, null if the miner has not been tuned for its current start command
+     */
+    public TuningProfile getTuningProfile() {
+        return tuningProfile;
+    }
+
+    public boolean isTuning() {
+        return tuner != null;
+    }
+
+    /**
+     * Benchmark thread counts, CPU affinities and huge pages, and keep the best configuration as the miner's profile.
+     * The miner is stopped and its automatic control paused meanwhile; the tuner runs once it has terminated.
+     * @return true: tuning started; false: already tuning
+     */
+    public boolean tune() {
+        if (tuner != null) {
+            return false;
+        }
+
+        MinerPolicy.Tuning tuning = policy.getTuning();
+        int budget = tuning.getMaxThreads() > 0 ? tuning.getMaxThreads() : getMaximumThreads();
+        BitSet cpus = null; // taskset pinning overrides the affinity xmrig sets, so only tune it when nothing else pins
+        if (affinityPartitioner == null && numaNode == null) {
+            cpus = new BitSet();
+            cpus.set(0, Runtime.getRuntime().availableProcessors());
+        }
+        CpuTopology topology = null; // hashrates are compared per physical core, SMT siblings share one
+        int availableCores = 0;
+        if (!System.getProperty("os.name").startsWith("Windows")) {
+            try {
+                topology = CpuTopology.read(policy.getThreadSizing().getSysfsRoot());
+                BitSet allowed = numaNode != null ? numaNode.getCpus() : cpuPartition != null ? cpuPartition.getMinerCpus() : topology.getCpus();
+                availableCores = topology.countCores(allowed);
+            } catch (Exception e) {
+                plugin.sendWarn(String.format(plugin.l("miner.tuning.noTopology"), instanceName, e.getLocalizedMessage()));
+            }
+        }
+        List<String> command = getLaunchCommand();
+        if (isBoundByNumactl()) {
+            command = withNumaBinding(command);
+        }
+        String startCommand = policy.getStartCommand();
+        MinerAutoTuner created = new MinerAutoTuner(plugin, instanceName, command, new File(plugin.getMinerPath() + "/" + name),
+                cpus, budget, availableCores > 0 ? topology : null, availableCores, tuning, startCommand, this::onTuningFinished);
+        tuner = created;
+
+        setAutomaticControlPaused(true);
+        stopMining();
+        plugin.getMinerLifecycle().submit(() -> null, ignored -> { // queued behind the termination of the miner
+            if (tuner == created) {
+                plugin.sendInfo(String.format(plugin.l("miner.tuning.started"), instanceName, created.getCandidates().size()));
+                created.start();
+            }
+        }, e -> onTuningFinished(null));
+        return true;
+    }
+
+    /**
+     * Stop tuning. The profile found so far is discarded.
+     */
+    public void cancelTuning() {
+        if (tuner != null) {
+            tuner.cancel(); // reports back through onTuningFinished
+        }
+    }
+
+    private void onTuningFinished(TuningProfile best) {
+        tuner = null;
+        if (best == null) {
+            plugin.sendWarn(String.format(plugin.l("miner.tuning.noResult"), instanceName));
+        } else {
+            tuningProfile = best;
+            plugin.sendInfo(String.format(plugin.l("miner.tuning.finished"), instanceName, best,
+                    MinerTelemetry.formatHashrate(best.getHashrate()), MinerTelemetry.formatHashrate(best.getHashratePerCore()), best.getCores()));
+            try {
+                best.save(getTuningProfileFile());
+            } catch (IOException e) {
+                plugin.sendWarn(String.format(plugin.l("miner.tuning.failedSavingProfile"), instanceName, e.getLocalizedMessage()));
+            }
+        }
+        setAutomaticControlPaused(false);
+        if (plugin.getMinerCoordinator().contains(this)) {
+            requestCheck(); // hand the miner back to the policy
+        }
+    }
+
+    private void sampleCpuUsage() {
+        Process process = minerProcess;
+        if (process != sampledProcess) { // Counters of another process are no baseline
+            cpuSampler.reset();
+            sampledProcess = process;
+        }
+        if (process == null || !process.isAlive()) {
+            return;
+        }
+
+        List<String> pids = new ArrayList<>();
+        pids.add(String.valueOf(process.pid()));
+        process.descendants().forEach(descendant -> pids.add(String.valueOf(descendant.pid())));
+        cpuSampler.sample(pids);
+    }
+
+    /**
+     * Get the CPU usage of the miner's process tree
+     * @return sampler, whose series is empty on Windows
+     */
+    public ProcessCpuSampler getCpuSampler() {
+        return cpuSampler;
+    }
+
+    /**
+     * Arm a single task for the next boundary of the mining schedule. Delays are capped,
+     * as Bukkit counts them in ticks and ticks fall behind the wall clock while the server lags.
+     */
+    private void armSchedule() {
+        if (scheduleTask != null) {
+            scheduleTask.cancel();
+            scheduleTask = null;
+        }
+        if (!schedule.isEnabled()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        Instant next = schedule.getNextTransition(Instant.ofEpochMilli(now));
+        long delayMillis = next == null ? MaxScheduleDelayMillis : Math.min(next.toEpochMilli() - now, MaxScheduleDelayMillis);
+        boolean boundary = next != null && next.toEpochMilli() - now <= MaxScheduleDelayMillis;
+        scheduleTask = plugin.getServer().getScheduler().runTaskLater(plugin, () -> {
+            scheduleTask = null;
+            if (!plugin.getMinerCoordinator().contains(this)) { // Replaced by a reload
+                return;
+            }
+            if (boundary) {
+                plugin.sendInfo(String.format(plugin.l("miner.scheduleTransition"), instanceName,
+                        plugin.l(isScheduleAllowed() ? "miner.schedule.open" : "miner.schedule.closed")));
+                plugin.getMinerCoordinator().checkAndToggleMining();
+            }
+            armSchedule();
+        }, Math.max(delayMillis / 50 + 1, 1));
+    }
+
+    /**
+     * Switch to a changed policy without recreating this manager. The miner keeps running,
+     * unless the start command changed, in which case it is restarted.
+     * @param updated changed policy
+     * @return true: applied; false: the policy sets the miner up differently, a new MinerManager is needed
+     * @throws java.time.DateTimeException if the schedule is malformed, the current policy is kept then
+     */
+    public boolean updatePolicy(MinerPolicy updated) {
+        if (!policy.hasSameSetup(updated)) {
+            return false;
+        }
+
+        MiningSchedule updatedSchedule = new MiningSchedule(updated.getSchedule());
+        boolean commandChanged = !Objects.equals(policy.getStartCommand(), updated.getStartCommand());
+        this.policy = updated;
+        this.schedule = updatedSchedule;
+        checkSuspendMode();
+        armSchedule();
+        defaultThreads = -1; // the command or the thread scaling may set a count now
+        sizeDefaultThreads();
+        if (commandChanged) {
+            loadTuningProfile();
+        }
+
+        MinerState current = getMinerState();
+        if (commandChanged && current != MinerState.STOPPED && current != MinerState.STOPPING) {
+            plugin.sendInfo(String.format(plugin.l("miner.policyRestarting"), instanceName));
+            restartMining();
+        } else {
+            requestCheck();
+        }
+        return true;
+    }
+
+    /**
+     * Decide whether the miner can be started with its RandomX dataset, in light mode, or not at all.
+     * @return mode to start in, FULL if memory is not guarded or cannot be read
+     */
+    private MemoryPressureGuard.Mode decideStartMode() {
+        if (memoryGuard == null) {
+            return MemoryPressureGuard.Mode.FULL;
+        }
+        try {
+            return memoryGuard.decideStartMode(memoryGuard.getHeadroomBytes());
+        } catch (IOException e) {
+            return MemoryPressureGuard.Mode.FULL;
+        }
+    }
+
+    /**
+     * Sample the memory left for the server, and give memory back while the server is short of it:
+     * restart the miner in light mode, or stop it if it already is.
+     * Runs asynchronously, as it reads /proc.
+     */
+    private void checkMemoryPressure() {
+        long headroom;
+        try {
+            headroom = memoryGuard.getHeadroomBytes();
+        } catch (IOException e) {
+            memoryHeadroomBytes = Long.MIN_VALUE;
+            return;
+        }
+        memoryHeadroomBytes = headroom;
+
+        Process process = minerProcess;
+        if (process == null || !process.isAlive() || !memoryGuard.isBelowFloor(headroom)) {
+            return;
+        }
+
+        plugin.getServer().getScheduler().runTask(plugin, () -> {
+            if (process != minerProcess || !isMinerAlive() || memoryTask == null) { // Restarted or closed meanwhile
+                return;
+            }
+            if (!lightMode && !policy.getMemoryGuard().getLightModeArgument().isEmpty()) {
+                plugin.sendWarn(String.format(plugin.l("miner.memoryPressureLight"), instanceName, headroom / 1024 / 1024));
+                stopMining();
+                startMining(true); // queued behind the termination, so the start sees the dataset released
+            } else {
+                plugin.sendWarn(String.format(plugin.l("miner.memoryPressureStop"), instanceName, headroom / 1024 / 1024));
+                stopMining();
+            }
+        });
+    }
+
+    /**
+     * Get the memory left for the server, as last sampled by the memory task
+     * @return bytes, -1 if memory is not guarded, not sampled yet or cannot be read
+     */
+    public long getMemoryHeadroomBytes() {
+        long headroom = memoryHeadroomBytes;
+        return memoryGuard == null || headroom == Long.MIN_VALUE ? -1 : headroom;
+    }
+
+    public boolean isLightMode() {
+        return lightMode;
+    }
+
+    /**
+     * Whether the mining schedule currently allows mining
+     * @return true: inside a window or no schedule; false: outside of all windows
+     */
+    public boolean isScheduleAllowed() {
+        return schedule.isAllowed(Instant.now());
+    }
+
+    public MiningSchedule getSchedule() {
+        return schedule;
+    }
+
+    private void pollTelemetry(XmrigApiClient api) {
+        if (!isMinerAlive()) {
+            return;
+        }
+        try {
+            telemetry.updateFromSummary(api.getSummary());
+        } catch (Exception ignored) {
+            // The API is not up yet, or the miner is suspended; keep the last numbers
+        }
+    }
+
+    /**
+     * Get the name the miner is known by, e.g. in admin commands
+     * @return policy name, followed by @node<id> if the miner is bound to a NUMA node
+     */
+    public String getName() {
+        return instanceName;
+    }
+
+    public String getPolicyName() {
+        return name;
+    }
+
+    public MinerPolicy getPolicy() {
+        return policy;
+    }
+
+    public NumaTopology.Node getNumaNode() {
+        return numaNode;
+    }
+
+    /**
+     * Get the port of xmrig's HTTP API. Miners bound to NUMA nodes listen on the policy's port plus the node id.
+     * @return port
+     */
+    int getHttpPort() {
+        return policy.getHttpApi().getPort() + (numaNode == null ? 0 : numaNode.getId());
+    }
+
+    private XmrigApiClient createApiClient() {
+        return new XmrigApiClient(policy.getHttpApi().getHost(), getHttpPort(), policy.getHttpApi().getAccessToken());
+    }
+
+    public MinerTelemetry getTelemetry() {
+        return telemetry;
+    }
+
+    private void recomputeCpuPartition() {
+        CpuAffinityPartitioner.Partition partition;
+        try {
+            partition = affinityPartitioner.recompute(policy.getCpuAffinity().getMinimumServerCpus(), policy.getCpuAffinity().getHotThreadShare());
+        } catch (IOException e) {
+            plugin.sendWarn(String.format(plugin.l("miner.failedPinningCpus"), e.getLocalizedMessage()));
+            return;
+        }
+        if (partition == null) {
+            return;
+        }
+
+        plugin.getServer().getScheduler().runTask(plugin, () -> {
+            if (affinityTask == null || partition.equals(cpuPartition)) { // Closed meanwhile, or nothing changed
+                return;
+            }
+            cpuPartition = partition;
+            pinMinerCpus();
+        });
+    }
+
+    private boolean isBoundByNumactl() {
+        return numaNode != null && policy.getNuma().isUseNumactl() && !System.getProperty("os.name").startsWith("Windows");
+    }
+
+    /**
+     * Pin the miner to the CPUs the server's busy threads are not running on, within its NUMA node if it has one.
+     * The tick duration is logged along, so the effect of the partition can be compared over time.
+     */
+    private void pinMinerCpus() {
+        CpuAffinityPartitioner.Partition partition = cpuPartition;
+        Process process = minerProcess;
+        if (process == null || (partition == null && (numaNode == null || isBoundByNumactl()))) {
+            return;
+        }
+
+        BitSet cpus;
+        if (partition == null) {
+            cpus = numaNode.getCpus();
+        } else {
+            cpus = partition.getMinerCpus();
+            if (numaNode != null) {
+                cpus.and(numaNode.getCpus());
+                if (cpus.isEmpty()) { // The server's busy threads occupy the whole node, stay on it anyway
+                    cpus = numaNode.getCpus();
+                }
+            }
+        }
+
+        BitSet pinnedCpus = cpus;
+        plugin.getMinerLifecycle().submit(() -> {
+            CpuAffinityPartitioner.pin(process, pinnedCpus);
+            return null;
+        }, ignored -> plugin.sendInfo(String.format(plugin.l("miner.cpusPinned"), instanceName, CpuList.format(pinnedCpus),
+                        partition == null ? "-" : CpuList.format(partition.getServerCpus()),
+                        plugin.getTickMonitor().getPercentileMillis(95))),
+                e -> plugin.sendWarn(String.format(plugin.l("miner.failedPinningCpus"), e.getLocalizedMessage())));
+    }
+
+    /**
+     * Get the current split of CPUs between the server and the miner
+     * @return partition, null if CPU affinity is disabled or not computed yet
+     */
+    public CpuAffinityPartitioner.Partition getCpuPartition() {
+        return cpuPartition;
     }
 
     void validate() {
@@ -46,35 +625,92 @@ public class MinerManager {
         }
     }
 
+    /**
+     * Warn about a suspend mode this platform cannot carry out, see {@link #getSuspendMode()}.
+     */
+    private void checkSuspendMode() {
+        if (policy.getSuspendMode() != getSuspendMode()) {
+            plugin.sendWarn(String.format(plugin.l("policy.failure.signalSuspendUnsupported"), name));
+        }
+    }
+
+    /**
+     * Get the suspend mode to use. Windows has no SIGSTOP, so SIGNAL falls back to stopping the miner there.
+     * @return suspend mode of the policy, or NONE if it is SIGNAL on Windows
+     */
+    private MinerPolicy.SuspendMode getSuspendMode() {
+        MinerPolicy.SuspendMode mode = policy.getSuspendMode();
+        if (mode == MinerPolicy.SuspendMode.SIGNAL && System.getProperty("os.name").startsWith("Windows")) {
+            return MinerPolicy.SuspendMode.NONE;
+        }
+        return mode;
+    }
+
+    /**
+     * Get the state of the miner. A miner whose process has died on its own is reported as stopped.
+     * @return miner state
+     */
+    public MinerState getMinerState() {
+        if ((state == MinerState.RUNNING || state == MinerState.SUSPENDED) && !isMinerAlive()) {
+            return MinerState.STOPPED;
+        }
+        return state;
+    }
+
     /**
      * Get running status of miner
-     * @return true: running; false: stopped
+     * @return true: running; false: stopped or suspended
      */
     public boolean getMinerStatus() {
-        if (minerProcess == null) {
+        return getMinerState() == MinerState.RUNNING;
+    }
+
+    /**
+     * Whether the miner process exists, no matter if it is suspended
+     * @return true: process alive; false: no process
+     */
+    public boolean isMinerAlive() {
+        Process process = minerProcess;
+        if (process == null) {
             return false;
         }
-        return minerProcess.isAlive();
+        return process.isAlive();
+    }
+
+    public boolean isSuspended() {
+        return getMinerState() == MinerState.SUSPENDED;
     }
 
     /**
-     * Get the latest output from the miner.
-     * @return output. empty string if the miner has stopped
+     * Get the language token describing the miner status
+     * @return miner.status.* token for the current state
      */
-    public String fetchMinerOutput() {
-        if (!getMinerStatus()) {
-            return "";
+    public String getMinerStatusToken() {
+        switch (getMinerState()) {
+            case RUNNING:
+                return "miner.status.mining";
+            case SUSPENDED:
+                return "miner.status.suspended";
+            case STARTING:
+                return "miner.status.starting";
+            case STOPPING:
+                return "miner.status.stopping";
+            default:
+                return "miner.status.stopped";
         }
+    }
 
-        try {
-            int no = out.available();
-            if (no > 0) {
-                byte[] buffer = new byte[4000];
-                int n = out.read(buffer, 0, Math.min(no, buffer.length));
-                return new String(buffer, 0, n);
-            }
-        } catch (IOException ignored) { }
-        return "";
+    /**
+     * Get the latest output from the miner. Output is kept after the miner stops.
+     * @param lines maximum number of lines
+     * @return output. empty string if the miner has not printed anything yet
+     */
+    public String fetchMinerOutput(int lines) {
+        return output.tail(lines);
+    }
+
+    public MinerOutputBuffer getOutputBuffer() {
+        return output;
     }
 
     /**
@@ -83,7 +719,8 @@ public class MinerManager {
      * @return true: success; false: failed
      */
     public boolean writeInputToMiner(String input) {
-        if (!getMinerStatus()) {
+        OutputStream in = this.in;
+        if (!getMinerStatus() || in == null) {
             return false;
         }
 
@@ -97,101 +734,571 @@ public class MinerManager {
     }
 
     /**
-     * Whether the server workload satisfy the policy to start mining
+     * Whether the server workload satisfy the policy to start mining, or to keep mining if the miner is running
      * @return true: satisfied; false: unsatisfied
      */
     public boolean meetMiningCondition() {
-        return plugin.getServer().getOnlinePlayers().size() <= policy.getMiningPlayerCountCeiling();
+        int playerCount = plugin.getServer().getOnlinePlayers().size();
+        if (!isScheduleAllowed()) {
+            return false;
+        }
+        int threshold = getMinerStatus() ? policy.getMiningStopPlayerCount() : policy.getMiningStartPlayerCount();
+        if (playerCount > threshold || policy.getScaledThreads(playerCount) == 0) {
+            return false;
+        }
+        if (!plugin.getMinerCoordinator().hasCapacityFor(this)) { // Gives way to miners of higher priority
+            return false;
+        }
+        // The start decides again on the lifecycle thread, this only spares starts bound to be refused
+        long headroom = memoryHeadroomBytes;
+        if (!isMinerAlive() && memoryGuard != null && headroom != Long.MIN_VALUE
+                && memoryGuard.decideStartMode(headroom) == MemoryPressureGuard.Mode.REFUSE) {
+            return false;
+        }
+        // A running miner is throttled through its cgroup instead, if the policy allows
+        return !isOverTickBudget() || (getMinerStatus() && canThrottleCpu());
+    }
+
+    private boolean canThrottleCpu() {
+        return cgroupAttached && policy.getCgroup().getThrottledCpuMaxPercent() > 0;
+    }
+
+    /**
+     * Tighten the CPU quota of the miner's cgroup while the server is over its tick budget, and relax it afterwards.
+     */
+    public void applyCpuQuota() {
+        if (!cgroupAttached || !getMinerStatus()) {
+            return;
+        }
+
+        int percent = isOverTickBudget() && canThrottleCpu() ?
+                policy.getCgroup().getThrottledCpuMaxPercent() : policy.getCgroup().getCpuMaxPercent();
+        if (percent == appliedCpuMaxPercent) {
+            return;
+        }
+
+        appliedCpuMaxPercent = percent;
+        plugin.getMinerLifecycle().submit(() -> {
+            cgroup.setCpuMax(percent);
+            return null;
+        }, ignored -> plugin.sendInfo(String.format(plugin.l("miner.cpuQuotaChanged"), percent > 0 ? percent + "%" : "max")),
+                e -> {
+                    appliedCpuMaxPercent = -1; // retry on the next check
+                    plugin.sendWarn(String.format(plugin.l("miner.failedChangingCpuQuota"), e.getLocalizedMessage()));
+                });
     }
 
     /**
-     * Check if the server meets the policy for mining, and then automatically start or stop the miner.
+     * Prepare the cgroup for a new miner process. Must be called from the lifecycle thread.
+     * @return true: the process can be attached; false: cgroups are disabled or unavailable
+     */
+    private boolean prepareCgroup() {
+        if (cgroup == null) {
+            return false;
+        }
+        try {
+            cgroup.prepare();
+            cgroup.setCpuWeight(policy.getCgroup().getCpuWeight());
+            cgroup.setCpuMax(policy.getCgroup().getCpuMaxPercent());
+            return true;
+        } catch (IOException e) {
+            plugin.sendWarn(String.format(plugin.l("miner.cgroupUnavailable"), cgroup.getGroup(), e.getLocalizedMessage()));
+            return false;
+        }
+    }
+
+    /**
+     * Prefix the command so that the miner runs bound to the CPUs and memory of its NUMA node.
+     * @param command miner command
+     * @return prefixed command
+     */
+    private List<String> withNumaBinding(List<String> command) {
+        List<String> prefixed = new ArrayList<>();
+        prefixed.add("numactl");
+        prefixed.add("--cpunodebind=" + numaNode.getId());
+        prefixed.add("--membind=" + numaNode.getId()); // keeps the RandomX dataset on the node
+        prefixed.addAll(command);
+        return prefixed;
+    }
+
+    /**
+     * Prefix the command so that the miner runs with SCHED_IDLE or a raised nice value.
+     * @param command miner command
+     * @return prefixed command
+     */
+    private List<String> withSchedulingFallback(List<String> command) {
+        List<String> prefixed = new ArrayList<>();
+        if (policy.getCgroup().isFallbackIdleScheduling()) {
+            prefixed.add("chrt");
+            prefixed.add("--idle");
+            prefixed.add("0");
+        } else {
+            prefixed.add("nice");
+            prefixed.add("-n");
+            prefixed.add(String.valueOf(policy.getCgroup().getFallbackNice()));
+        }
+        prefixed.addAll(command);
+        return prefixed;
+    }
+
+    /**
+     * Whether the p95 tick duration exceeds the budget declared by the policy.
+     * On Paper this is the time the server works on each tick, on Spigot the time between ticks, see {@link TickMonitor}.
+     * @return true: over budget; false: within budget or no budget declared
+     */
+    public boolean isOverTickBudget() {
+        if (policy.getMsptP95BudgetMillis() <= 0) {
+            return false;
+        }
+        return plugin.getTickMonitor().getPercentileMillis(95) > policy.getMsptP95BudgetMillis();
+    }
+
+    /**
+     * Check if the server meets the policy for mining, and then automatically start (resume) or suspend the miner.
+     * The miner holds its status until it has been mining or idle for the minimum time declared by the policy.
      * @return true: miner status changed; false: miner status holds
      */
     public boolean checkAndToggleMining() {
+        if (automaticControlPaused) {
+            return false;
+        }
         boolean isRunning = getMinerStatus();
-        if (meetMiningCondition()) {
+        boolean shouldMine = meetMiningCondition();
+        if (shouldMine != isRunning && (shouldMine || isScheduleAllowed())) { // a closing window does not wait for the dwell time
+            long remainingMillis = getRemainingDwellMillis(isRunning);
+            if (remainingMillis > 0) {
+                plugin.getMinerCoordinator().requestCheck(remainingMillis / 50 + 1); // decide again once the dwell time is over
+                return false;
+            }
+        }
+
+        if (shouldMine) {
+            if (!isRunning && supervisor.isHoldingStart()) { // A crashed miner is backing off
+                return false;
+            }
             // No need for checking getMinerStatus() here as the method will check for it.
             startMining();
+            applyThreadScaling();
+            applyCpuQuota();
             return !isRunning;
         } else {
-            stopMining();
+            suspendMining();
             return isRunning;
         }
     }
 
+    /**
+     * Ask for a mining decision soon. Requests arriving before the decision is made are folded into it,
+     * so a burst of joins and quits results in a single toggle at most.
+     * The decision is made by the coordinator, as it applies to all miners.
+     */
+    public void requestCheck() {
+        plugin.getMinerCoordinator().requestCheck(policy.getDecisionDelaySeconds() * 20L);
+    }
+
+    private long getRemainingDwellMillis(boolean isRunning) {
+        int minimumSeconds = isRunning ? policy.getMinimumMiningSeconds() : policy.getMinimumIdleSeconds();
+        return statusChangedMillis + minimumSeconds * 1000L - System.currentTimeMillis();
+    }
+
     String[] getCommandArguments() {
         // TODO: Support quotes
-        return policy.getStartCommand().split(" ");
+        String command = policy.getStartCommand()
+                .replace("{httpPort}", String.valueOf(getHttpPort()))
+                .replace("{node}", numaNode == null ? "0" : String.valueOf(numaNode.getId()))
+                .replace("{nodeCpuCount}", String.valueOf(numaNode == null ? Runtime.getRuntime().availableProcessors() : numaNode.getCpus().cardinality()));
+        return command.split(" ");
+    }
+
+    /**
+     * Get the command starting the miner from its directory, without any light mode or NUMA binding.
+     * @return command
+     */
+    private List<String> getLaunchCommand() {
+        String[] args = getCommandArguments();
+        // Fix: #2
+        if (System.getProperty("os.name").startsWith("Windows")) {
+            args[0] = plugin.getMinerPath() + "/" + name + "/" + args[0]; // to absolute path
+        } else if (!args[0].startsWith("./")) {
+            args[0] = "./" + args[0];
+        }
+        return new ArrayList<>(Arrays.asList(args));
     }
 
     /**
-     * Start mining if the miner has not been started.
+     * Start mining if the miner has not been started. The miner is spawned on the lifecycle thread.
      */
     public void startMining() {
-        if (getMinerStatus()) { // check if the miner has already been started
+        startMining(false);
+    }
+
+    /**
+     * Start mining if the miner has not been started. Whether the memory allows the RandomX dataset is decided
+     * on the lifecycle thread, after a miner that is still stopping has been terminated.
+     * @param lightOnly true: start in light mode even if the dataset would fit, e.g. after memory pressure
+     */
+    private void startMining(boolean lightOnly) {
+        switch (getMinerState()) {
+            case STARTING:
+            case RUNNING:
+                return; // check if the miner has already been started
+            case SUSPENDED:
+                resumeMining();
+                return;
+        }
+
+        if (tuner != null) { // the tuning runs have the CPUs for themselves
             return;
         }
-        try {
-            String[] args = getCommandArguments();
-            // Fix: #2
-            if (System.getProperty("os.name").startsWith("Windows")) {
-                args[0] = plugin.getMinerPath() + "/" + name + "/" + args[0]; // to absolute path
-            } else if (!args[0].startsWith("./")) {
-                args[0] = "./" + args[0];
+        ProcessBuilder pb = new ProcessBuilder(getLaunchCommand());
+        pb.directory(new File(plugin.getMinerPath() + "/" + name));
+        if (defaultThreads > 0) {
+            pb.command().add("--threads=" + defaultThreads);
+        }
+        if (tuningProfile != null && policy.getTuning().isUseProfile()) {
+            pb.command().addAll(tuningProfile.toArguments()); // later arguments take precedence in xmrig
+        }
+        if (isBoundByNumactl()) {
+            pb.command(withNumaBinding(pb.command()));
+        }
+
+        // A miner that is still stopping is terminated before this runs, as the lifecycle thread works in order
+        state = MinerState.STARTING;
+        plugin.getMinerLifecycle().submit(() -> {
+            MemoryPressureGuard.Mode mode = decideStartMode();
+            if (lightOnly && mode == MemoryPressureGuard.Mode.FULL) {
+                mode = MemoryPressureGuard.Mode.LIGHT;
+            }
+            if (mode == MemoryPressureGuard.Mode.REFUSE) {
+                return mode;
+            }
+            if (mode == MemoryPressureGuard.Mode.LIGHT) {
+                pb.command().addAll(Arrays.asList(policy.getMemoryGuard().getLightModeArgument().split(" ")));
             }
-            ProcessBuilder pb = new ProcessBuilder(args);
 
-            pb.directory(new File(plugin.getMinerPath() + "/" + name));
-            this.minerProcess = pb.start();
-            this.out = minerProcess.getInputStream();
-            this.in = minerProcess.getOutputStream();
+            boolean useCgroup = prepareCgroup();
+            if (cgroup != null && !useCgroup && !System.getProperty("os.name").startsWith("Windows")) {
+                pb.command(withSchedulingFallback(pb.command()));
+            }
 
-            pb.redirectOutput(ProcessBuilder.Redirect.INHERIT); // TODO: Remove
-            pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+            Process process = pb.start();
+            this.cgroupAttached = false;
+            if (useCgroup) {
+                try {
+                    cgroup.attach(process.pid()); // threads spawned later by the miner stay in the cgroup
+                    this.cgroupAttached = true;
+                } catch (IOException e) {
+                    plugin.sendWarn(String.format(plugin.l("miner.cgroupUnavailable"), cgroup.getGroup(), e.getLocalizedMessage()));
+                }
+            }
+            this.minerProcess = process;
+            this.in = process.getOutputStream();
 
-            if (plugin.getMinerHatConfig().getRestartMinerIntervalMinutes() > 0) {
-                MinerManager currentMinerManager = this;
-
-                this.restartTimer = new Runnable() {
-                    final long startTime = System.currentTimeMillis() / 1000;
-                    final MinerManager minerManager = currentMinerManager;
-                    boolean cancelled = false;
-
-                    @Override
-                    public void run() {
-                        if (cancelled) { return; }
-                        if (minerManager.getMinerStatus() && System.currentTimeMillis() / 1000 - startTime >= plugin.getMinerHatConfig().getRestartMinerIntervalMinutes()) {
-                            minerManager.stopMining();
-                            minerManager.startMining();
-                            cancelled = true;
-                        }
-                    }
-                };
-                long interval = plugin.getMinerHatConfig().getRestartMinerIntervalMinutes() * 60L * 20L;
-                plugin.getServer().getScheduler().runTaskTimer(plugin, restartTimer, interval, interval);
+            // Keep both pipes drained, otherwise the miner blocks once the pipe buffer is full
+            new MinerOutputPump(instanceName + "-stdout", process.getInputStream(), output, consoleParser).start();
+            new MinerOutputPump(instanceName + "-stderr", process.getErrorStream(), output, consoleParser).start();
+            return mode;
+        }, mode -> {
+            if (state != MinerState.STARTING) { // Stop has been requested meanwhile and is queued behind us
+                return;
+            }
+            if (mode == MemoryPressureGuard.Mode.REFUSE) {
+                state = MinerState.STOPPED;
+                plugin.sendWarn(String.format(plugin.l("miner.memoryRefused"), instanceName, policy.getMemoryGuard().getMinimumAvailableMegabytes()));
+                return;
+            }
+            if (mode == MemoryPressureGuard.Mode.LIGHT) {
+                plugin.sendWarn(String.format(plugin.l("miner.memoryLightMode"), instanceName));
+            }
+            Process process = minerProcess;
+            state = MinerState.RUNNING;
+            minerThreads = -1;
+            lightMode = mode == MemoryPressureGuard.Mode.LIGHT;
+            appliedCpuMaxPercent = policy.getCgroup().getCpuMaxPercent();
+            statusChangedMillis = System.currentTimeMillis();
 
+            supervisor.onMinerStarted(process);
+            pinMinerCpus();
+            if (plugin.getMinerHatConfig().getRestartMinerIntervalMinutes() > 0) {
                 plugin.sendInfo(String.format(plugin.l("miner.autoRestart"), plugin.getMinerHatConfig().getRestartMinerIntervalMinutes()));
             }
 
+            if (!policy.getThreadScaling().isEmpty() || schedule.isEnabled()) {
+                // Give xmrig some time to bring up its HTTP API
+                plugin.getServer().getScheduler().runTaskLater(plugin, this::applyThreadScaling, ThreadScalingDelayTicks);
+            }
+
             plugin.sendInfo(plugin.l("miner.started"));
-        } catch (Exception e) {
+        }, e -> {
+            if (state == MinerState.STARTING) {
+                state = MinerState.STOPPED;
+            }
             e.printStackTrace();
             plugin.sendSevere(String.format(plugin.l("miner.failedStarting"), e.getLocalizedMessage()));
-        }
+        });
     }
 
     /**
-     * Stop mining if the miner is running.
+     * Stop mining if the miner is running. The miner receives SIGTERM on the lifecycle thread,
+     * and is killed if it does not exit in time.
      */
     public void stopMining() {
-        if (getMinerStatus()) {
-            minerProcess.destroy();
-            minerProcess = null;
+        MinerState current = getMinerState();
+        if (current == MinerState.STOPPING) {
+            return;
+        }
+        if (current == MinerState.STOPPED && !isMinerAlive()) {
+            state = MinerState.STOPPED;
+            supervisor.onStopRequested(); // no restart after a crash either
+            return;
+        }
+
+        state = MinerState.STOPPING;
+        supervisor.onStopRequested();
+        boolean signalSuspend = getSuspendMode() == MinerPolicy.SuspendMode.SIGNAL;
+        plugin.getMinerLifecycle().submit(() -> {
+            Process process = this.minerProcess;
+            this.minerProcess = null;
+            this.in = null;
+            if (process == null || !process.isAlive()) {
+                return false;
+            }
+            if (signalSuspend) {
+                // A stopped process would not handle SIGTERM until it is continued
+                try {
+                    signalProcessTree(process, "CONT");
+                } catch (Exception ignored) { }
+            }
+            MinerLifecycleExecutor.terminate(process);
+            if (cgroupAttached) {
+                cgroupAttached = false;
+                try {
+                    cgroup.close();
+                } catch (IOException ignored) { } // still busy, prepare() reuses it on the next start
+            }
+            return true;
+        }, stopped -> {
+            if (state == MinerState.STOPPING) {
+                state = MinerState.STOPPED;
+                statusChangedMillis = System.currentTimeMillis();
+            }
+            if (stopped) {
+                plugin.sendInfo(plugin.l("miner.stopped"));
+            }
+        }, e -> {
+            if (state == MinerState.STOPPING) {
+                state = MinerState.STOPPED;
+            }
+            e.printStackTrace();
+            plugin.sendSevere(String.format(plugin.l("miner.failedStopping"), e.getLocalizedMessage()));
+        });
+    }
+
+    /**
+     * Stop the miner and start it again, e.g. for scheduled rotation.
+     */
+    public void restartMining() {
+        stopMining();
+        startMining(); // queued behind the termination
+    }
+
+    /**
+     * Called by the supervisor once the miner exited without being asked to.
+     */
+    void onMinerExited() {
+        if (state == MinerState.RUNNING || state == MinerState.SUSPENDED) {
+            state = MinerState.STOPPED;
+            statusChangedMillis = System.currentTimeMillis();
+        }
+    }
+
+    public MinerSupervisor getSupervisor() {
+        return supervisor;
+    }
+
+    /**
+     * Freeze the miner while keeping its process (and the RandomX dataset) alive.
+     * Falls back to stopping the miner if the policy does not allow suspending or suspending fails.
+     */
+    public void suspendMining() {
+        if (!getMinerStatus()) {
+            return;
+        }
+        if (getSuspendMode() == MinerPolicy.SuspendMode.NONE) {
+            stopMining();
+            return;
+        }
+
+        state = MinerState.SUSPENDED;
+        statusChangedMillis = System.currentTimeMillis();
+        MinerPolicy.SuspendMode mode = getSuspendMode();
+        XmrigApiClient api = createApiClient();
+        plugin.getMinerLifecycle().submit(() -> {
+            if (mode == MinerPolicy.SuspendMode.SIGNAL) {
+                signalProcessTree(minerProcess, "STOP");
+            } else {
+                api.pause();
+            }
+            return null;
+        }, ignored -> plugin.sendInfo(plugin.l("miner.suspended")), e -> {
+            plugin.sendWarn(String.format(plugin.l("miner.failedSuspending"), e.getLocalizedMessage()));
+            if (state == MinerState.SUSPENDED) {
+                stopMining();
+            }
+        });
+    }
+
+    /**
+     * Resume a suspended miner. The miner is restarted if resuming fails.
+     */
+    public void resumeMining() {
+        if (!isSuspended()) {
+            return;
+        }
+
+        state = MinerState.RUNNING;
+        statusChangedMillis = System.currentTimeMillis();
+        MinerPolicy.SuspendMode mode = getSuspendMode();
+        XmrigApiClient api = createApiClient();
+        plugin.getMinerLifecycle().submit(() -> {
+            if (mode == MinerPolicy.SuspendMode.SIGNAL) {
+                signalProcessTree(minerProcess, "CONT");
+            } else {
+                api.resume();
+            }
+            return null;
+        }, ignored -> plugin.sendInfo(plugin.l("miner.resumed")), e -> {
+            plugin.sendWarn(String.format(plugin.l("miner.failedResuming"), e.getLocalizedMessage()));
+            if (state == MinerState.RUNNING) {
+                restartMining();
+            }
+        });
+    }
+
+    /**
+     * Send a signal to a process and all of its descendants. Must be called from the lifecycle thread.
+     * @param process root of the process tree
+     * @param signal signal name without the SIG prefix
+     */
+    static void signalProcessTree(Process process, String signal) throws IOException, InterruptedException {
+        if (System.getProperty("os.name").startsWith("Windows")) {
+            throw new IOException("Signals are not supported on Windows");
+        }
+        if (process == null || !process.isAlive()) {
+            throw new IOException("The miner process is not running");
+        }
+
+        List<String> command = new ArrayList<>();
+        command.add("kill");
+        command.add("-" + signal);
+        command.add(String.valueOf(process.pid()));
+        process.descendants().forEach(descendant -> command.add(String.valueOf(descendant.pid())));
+
+        int exitCode = new ProcessBuilder(command).start().waitFor();
+        if (exitCode != 0) {
+            throw new IOException(String.format("kill -%s exited with code %d", signal, exitCode));
+        }
+    }
+
+    public int getMinerThreads() {
+        return minerThreads;
+    }
+
+    /**
+     * Get the largest number of threads the miner is meant to run with
+     * @return the largest step of thread scaling, the count sized from the CPU topology, or the CPUs of the NUMA node or machine
+     */
+    public int getMaximumThreads() {
+        int threads = 0;
+        for (MinerPolicy.ThreadScalingStep step : policy.getThreadScaling()) {
+            threads = Math.max(threads, step.getThreads());
+        }
+        if (threads > 0) {
+            return threads;
+        }
+        if (defaultThreads > 0) {
+            return defaultThreads;
+        }
+        return numaNode == null ? Runtime.getRuntime().availableProcessors() : numaNode.getCpus().cardinality();
+    }
+
+    /**
+     * Get the number of threads the miner starts with, before any scaling or schedule cap
+     * @return the threads of the applied tuning profile, or the largest number of threads
+     */
+    private int getStartThreads() {
+        if (tuningProfile != null && policy.getTuning().isUseProfile() && tuningProfile.getThreads() > 0) {
+            return tuningProfile.getThreads();
+        }
+        return getMaximumThreads();
+    }
+
+    /**
+     * Stop or resume deciding on the miner's status and threads automatically.
+     * @param paused true: leave the miner as it is; false: follow the policy again
+     */
+    public void setAutomaticControlPaused(boolean paused) {
+        this.automaticControlPaused = paused;
+    }
+
+    public boolean isAutomaticControlPaused() {
+        return automaticControlPaused;
+    }
 
-            restartTimer = null;
+    /**
+     * Scale the miner to the number of threads the policy declares for the current player count,
+     * capped by the open schedule window.
+     */
+    public void applyThreadScaling() {
+        if (automaticControlPaused) {
+            return;
+        }
+        int threads = policy.getScaledThreads(plugin.getServer().getOnlinePlayers().size());
+        int cap = schedule.isEnabled() ? schedule.getThreadCap(Instant.now()) : 0;
+        if (cap > 0) {
+            threads = threads > 0 ? Math.min(threads, cap) : cap;
+        } else if (threads <= 0 && minerThreads > 0) {
+            threads = getStartThreads(); // the cap has been lifted, go back to the count the miner started with
+        }
+        if (threads > 0) {
+            setMinerThreads(threads);
+        }
+    }
 
-            plugin.sendInfo(plugin.l("miner.stopped"));
+    /**
+     * Change the number of miner threads without restarting it. The change is sent to xmrig's HTTP API asynchronously,
+     * and will be retried by the next call if it fails.
+     * @param threads number of threads
+     */
+    public void setMinerThreads(int threads) {
+        if (!getMinerStatus() || !policy.getHttpApi().isEnabled() || threads == minerThreads || threadScalingInProgress) {
+            return;
         }
+
+        threadScalingInProgress = true;
+        Process process = minerProcess;
+        XmrigApiClient api = createApiClient();
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+            Exception error = null;
+            try {
+                api.setCpuThreads(threads);
+            } catch (Exception e) {
+                error = e;
+            }
+
+            Exception finalError = error;
+            plugin.getServer().getScheduler().runTask(plugin, () -> {
+                threadScalingInProgress = false;
+                if (process != minerProcess) { // The miner has been restarted meanwhile
+                    return;
+                }
+                if (finalError == null) {
+                    minerThreads = threads;
+                    plugin.sendInfo(String.format(plugin.l("miner.threadsScaled"), threads));
+                } else {
+                    plugin.sendWarn(String.format(plugin.l("miner.failedScalingThreads"), finalError.getLocalizedMessage()));
+                }
+            });
+        });
     }
 }
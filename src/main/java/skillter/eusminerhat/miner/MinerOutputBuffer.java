@@ -0,0 +1,133 @@
+package skillter.eusminerhat.miner;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Fixed-size byte ring holding the most recent output of a miner.
+ * Positions are absolute byte offsets into everything ever written, so readers can tell what they have already seen.
+ */
+public class MinerOutputBuffer {
+    private final byte[] buffer;
+    private long writePosition = 0;
+
+    public MinerOutputBuffer(int capacity) {
+        this.buffer = new byte[capacity];
+    }
+
+    /**
+     * Append bytes, overwriting the oldest output once the ring is full.
+     * @param source source array
+     * @param offset start offset in source
+     * @param length number of bytes to append
+     */
+    public synchronized void write(byte[] source, int offset, int length) {
+        if (length > buffer.length) { // only the tail fits anyway
+            writePosition += length - buffer.length;
+            offset += length - buffer.length;
+            length = buffer.length;
+        }
+        int start = (int) (writePosition % buffer.length);
+        int first = Math.min(length, buffer.length - start);
+        System.arraycopy(source, offset, buffer, start, first);
+        System.arraycopy(source, offset + first, buffer, 0, length - first);
+        writePosition += length;
+    }
+
+    public synchronized long getWritePosition() {
+        return writePosition;
+    }
+
+    public synchronized long getOldestPosition() {
+        return Math.max(0, writePosition - buffer.length);
+    }
+
+    public synchronized boolean isEmpty() {
+        return writePosition == 0;
+    }
+
+    /**
+     * Get the last lines of output.
+     * @param lines maximum number of lines
+     * @return output, empty string if nothing has been written
+     */
+    public synchronized String tail(int lines) {
+        long end = writePosition;
+        long floor = getOldestPosition();
+        if (floor > 0) { // the ring has wrapped, the oldest line has been partially overwritten
+            while (floor < end && byteAt(floor) != '\n') {
+                floor++;
+            }
+            floor = Math.min(floor + 1, end);
+        }
+        if (lines <= 0) {
+            return "";
+        }
+
+        long position = end - 1;
+        if (position >= floor && byteAt(position) == '\n') { // ignore the trailing line break
+            position--;
+        }
+
+        long start = floor;
+        int found = 0;
+        for (; position >= floor; position--) {
+            if (byteAt(position) == '\n' && ++found == lines) {
+                start = position + 1;
+                break;
+            }
+        }
+        return decode(start, end);
+    }
+
+    /**
+     * Open a cursor positioned at the current end of output.
+     * @return cursor only seeing output written from now on
+     */
+    public synchronized Cursor openCursor() {
+        return new Cursor(writePosition);
+    }
+
+    private byte byteAt(long position) {
+        return buffer[(int) (position % buffer.length)];
+    }
+
+    private String decode(long start, long end) {
+        int length = (int) (end - start);
+        if (length <= 0) {
+            return "";
+        }
+        byte[] copy = new byte[length];
+        int from = (int) (start % buffer.length);
+        int first = Math.min(length, buffer.length - from);
+        System.arraycopy(buffer, from, copy, 0, first);
+        System.arraycopy(buffer, 0, copy, first, length - first);
+        return new String(copy, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reading position of a single follower.
+     */
+    public class Cursor {
+        private long position;
+
+        private Cursor(long position) {
+            this.position = position;
+        }
+
+        public MinerOutputBuffer getBuffer() {
+            return MinerOutputBuffer.this;
+        }
+
+        /**
+         * Read everything written since the last call. Output that has already been overwritten is skipped.
+         * @return new output, empty string if there is none
+         */
+        public String readNew() {
+            synchronized (MinerOutputBuffer.this) {
+                long start = Math.max(position, getOldestPosition());
+                position = writePosition;
+                return decode(start, writePosition);
+            }
+        }
+    }
+}
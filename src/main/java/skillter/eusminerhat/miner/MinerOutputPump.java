@@ -0,0 +1,71 @@
+package skillter.eusminerhat.miner;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Drains one output stream of the miner process so that the miner never blocks on a full pipe.
+ * Bytes are collected into complete lines before being committed, so stdout and stderr do not interleave mid-line.
+ */
+class MinerOutputPump extends Thread {
+    /**
+     * Receives every committed line. The array is reused, so it must not be kept.
+     */
+    interface LineListener {
+        void onLine(byte[] line, int offset, int length);
+    }
+
+    private static final int READ_BUFFER_SIZE = 4096;
+    static final int LINE_BUFFER_SIZE = 1024;
+    private static final byte[] LINE_BREAK = { '\n' };
+
+    private final InputStream stream;
+    private final MinerOutputBuffer output;
+    private final LineListener listener;
+    private final byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+    private final byte[] line = new byte[LINE_BUFFER_SIZE];
+    private int lineLength = 0;
+
+    MinerOutputPump(String name, InputStream stream, MinerOutputBuffer output, LineListener listener) {
+        super(name);
+        this.stream = stream;
+        this.output = output;
+        this.listener = listener;
+
+        setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+        try {
+            int n;
+            while ((n = stream.read(readBuffer)) != -1) {
+                for (int i = 0; i < n; i++) {
+                    byte b = readBuffer[i];
+                    if (b == '\r') {
+                        continue;
+                    }
+                    line[lineLength++] = b;
+                    if (b == '\n' || lineLength == line.length) {
+                        commitLine();
+                    }
+                }
+            }
+        } catch (IOException ignored) {
+            // The stream is closed together with the process
+        } finally {
+            if (lineLength > 0) {
+                commitLine();
+                output.write(LINE_BREAK, 0, 1);
+            }
+        }
+    }
+
+    private void commitLine() {
+        output.write(line, 0, lineLength);
+        if (listener != null) {
+            listener.onLine(line, 0, lineLength);
+        }
+        lineLength = 0;
+    }
+}
@@ -5,11 +5,296 @@ import com.google.gson.stream.JsonReader;
 
 import java.io.FileReader;
 import java.io.IOException;
+import java.time.DayOfWeek;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 
 public class MinerPolicy {
+    public enum SuspendMode {
+        NONE, // stop the miner process
+        SIGNAL, // freeze the process tree with SIGSTOP/SIGCONT
+        HTTP_API // pause/resume through xmrig's JSON-RPC API
+    }
+
+    public static class HttpApi {
+        private String host = "127.0.0.1";
+        private int port = 0;
+        private String accessToken = "";
+        private int telemetryIntervalSeconds = 10; // <=0: no telemetry
+
+        public String getHost() {
+            return host;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public String getAccessToken() {
+            return accessToken;
+        }
+
+        public int getTelemetryIntervalSeconds() {
+            return telemetryIntervalSeconds;
+        }
+
+        public boolean isEnabled() {
+            return port > 0;
+        }
+    }
+
+    public static class Cgroup {
+        private boolean enabled = false;
+        private String root = "/sys/fs/cgroup";
+        private String name = ""; // empty: minerhat-<miner name>
+        private int cpuMaxPercent = 0; // percentage of one CPU, <=0: no limit
+        private int throttledCpuMaxPercent = 0; // applied while over the tick budget, <=0: suspend instead
+        private int cpuWeight = 10;
+        private boolean fallbackIdleScheduling = true; // SCHED_IDLE if the cgroup is not writable, nice otherwise
+        private int fallbackNice = 19;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public String getRoot() {
+            return root;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getCpuMaxPercent() {
+            return cpuMaxPercent;
+        }
+
+        public int getThrottledCpuMaxPercent() {
+            return throttledCpuMaxPercent;
+        }
+
+        public int getCpuWeight() {
+            return cpuWeight;
+        }
+
+        public boolean isFallbackIdleScheduling() {
+            return fallbackIdleScheduling;
+        }
+
+        public int getFallbackNice() {
+            return fallbackNice;
+        }
+    }
+
+    public static class CpuAffinity {
+        private boolean enabled = false;
+        private String procRoot = "/proc";
+        private int recomputeIntervalSeconds = 300;
+        private int minimumServerCpus = 2;
+        private double hotThreadShare = 0.05; // share of the JVM's CPU time that makes a thread count as busy
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public String getProcRoot() {
+            return procRoot;
+        }
+
+        public int getRecomputeIntervalSeconds() {
+            return recomputeIntervalSeconds;
+        }
+
+        public int getMinimumServerCpus() {
+            return minimumServerCpus;
+        }
+
+        public double getHotThreadShare() {
+            return hotThreadShare;
+        }
+    }
+
+    public static class Numa {
+        private boolean enabled = false; // one miner per node; startCommand may use {node}, {nodeCpuCount} and {httpPort}
+        private String sysfsRoot = "/sys/devices/system/node";
+        private boolean useNumactl = true; // bind CPUs and memory with numactl, otherwise pin CPUs with taskset
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public String getSysfsRoot() {
+            return sysfsRoot;
+        }
+
+        public boolean isUseNumactl() {
+            return useNumactl;
+        }
+    }
+
+    public static class MemoryGuard {
+        private boolean enabled = false;
+        private String procRoot = "/proc";
+        private int minimumAvailableMegabytes = 1024; // floor of the memory left for the server
+        private int datasetMegabytes = 2336; // RandomX dataset and cache
+        private int lightModeMegabytes = 256; // RandomX cache only
+        private String lightModeArgument = "--randomx-mode=light"; // empty: never start in light mode
+        private int checkIntervalSeconds = 30;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public String getProcRoot() {
+            return procRoot;
+        }
+
+        public int getMinimumAvailableMegabytes() {
+            return minimumAvailableMegabytes;
+        }
+
+        public int getDatasetMegabytes() {
+            return datasetMegabytes;
+        }
+
+        public int getLightModeMegabytes() {
+            return lightModeMegabytes;
+        }
+
+        public String getLightModeArgument() {
+            return lightModeArgument == null ? "" : lightModeArgument;
+        }
+
+        public int getCheckIntervalSeconds() {
+            return checkIntervalSeconds;
+        }
+    }
+
+    public static class Schedule {
+        private String timeZone = ""; // empty: the server's time zone
+        private List<ScheduleWindow> windows = new ArrayList<>(); // empty: mining is always allowed
+
+        public String getTimeZone() {
+            return timeZone == null ? "" : timeZone;
+        }
+
+        public List<ScheduleWindow> getWindows() {
+            return windows == null ? new ArrayList<>() : windows;
+        }
+    }
+
+    public static class ScheduleWindow {
+        private List<DayOfWeek> days = new ArrayList<>(); // day the window starts on, empty: every day
+        private String start = "00:00";
+        private String end = "00:00"; // at or before start: on the next day
+        private int maxThreads = 0; // <=0: no cap
+
+        public List<DayOfWeek> getDays() {
+            return days;
+        }
+
+        public String getStart() {
+            return start;
+        }
+
+        public String getEnd() {
+            return end;
+        }
+
+        public int getMaxThreads() {
+            return maxThreads;
+        }
+    }
+
+    public static class ThreadSizing {
+        private boolean enabled = true; // only when neither startCommand nor threadScaling sets a thread count
+        private String sysfsRoot = "/sys/devices/system/cpu";
+        private int reservedServerCores = 1; // physical cores left to the server
+        private int cacheKilobytesPerThread = 2048; // RandomX scratchpad
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public String getSysfsRoot() {
+            return sysfsRoot;
+        }
+
+        public int getReservedServerCores() {
+            return reservedServerCores;
+        }
+
+        public int getCacheKilobytesPerThread() {
+            return cacheKilobytesPerThread;
+        }
+    }
+
+    public static class Tuning {
+        private int maxThreads = 0; // CPU budget of the tuning runs, <=0: every CPU the miner may use
+        private String benchSize = "1M"; // xmrig --bench size: 1M, 2M, ... 10M
+        private int runTimeoutSeconds = 600;
+        private boolean tuneAffinity = true; // also try compact and spread CPU affinities
+        private boolean tuneHugePages = true; // also try without huge pages
+        private boolean useProfile = true; // apply the tuned profile on start
+
+        public int getMaxThreads() {
+            return maxThreads;
+        }
+
+        public String getBenchSize() {
+            return benchSize;
+        }
+
+        public int getRunTimeoutSeconds() {
+            return runTimeoutSeconds;
+        }
+
+        public boolean isTuneAffinity() {
+            return tuneAffinity;
+        }
+
+        public boolean isTuneHugePages() {
+            return tuneHugePages;
+        }
+
+        public boolean isUseProfile() {
+            return useProfile;
+        }
+    }
+
+    public static class ThreadScalingStep {
+        private int maxPlayers;
+        private int threads;
+
+        public int getMaxPlayers() {
+            return maxPlayers;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+    }
+
     private String description;
     private int miningPlayerCountCeiling;
+    private int miningStartPlayerCount = -1; // <0: miningPlayerCountCeiling
+    private int miningStopPlayerCount = -1; // <0: miningPlayerCountCeiling
+    private int minimumMiningSeconds = 0;
+    private int minimumIdleSeconds = 0;
+    private int decisionDelaySeconds = 5;
+    private double msptP95BudgetMillis = 0; // <=0: disabled
     private String startCommand;
+    private SuspendMode suspendMode = SuspendMode.NONE;
+    private HttpApi httpApi = new HttpApi();
+    private List<ThreadScalingStep> threadScaling = new ArrayList<>();
+    private Cgroup cgroup = new Cgroup();
+    private CpuAffinity cpuAffinity = new CpuAffinity();
+    private Numa numa = new Numa();
+    private Schedule schedule = new Schedule();
+    private MemoryGuard memoryGuard = new MemoryGuard();
+    private Tuning tuning = new Tuning();
+    private ThreadSizing threadSizing = new ThreadSizing();
 
     public String getDescription() {
         return description;
@@ -27,6 +312,43 @@ public class MinerPolicy {
         this.miningPlayerCountCeiling = miningPlayerCountCeiling;
     }
 
+    /**
+     * Get the player count at or below which a stopped miner starts
+     * @return player count
+     */
+    public int getMiningStartPlayerCount() {
+        return miningStartPlayerCount < 0 ? miningPlayerCountCeiling : miningStartPlayerCount;
+    }
+
+    /**
+     * Get the player count above which a running miner stops. It is never lower than the start threshold.
+     * @return player count
+     */
+    public int getMiningStopPlayerCount() {
+        int stop = miningStopPlayerCount < 0 ? miningPlayerCountCeiling : miningStopPlayerCount;
+        return Math.max(stop, getMiningStartPlayerCount());
+    }
+
+    public int getMinimumMiningSeconds() {
+        return minimumMiningSeconds;
+    }
+
+    public int getMinimumIdleSeconds() {
+        return minimumIdleSeconds;
+    }
+
+    public int getDecisionDelaySeconds() {
+        return decisionDelaySeconds;
+    }
+
+    public double getMsptP95BudgetMillis() {
+        return msptP95BudgetMillis;
+    }
+
+    public void setMsptP95BudgetMillis(double msptP95BudgetMillis) {
+        this.msptP95BudgetMillis = msptP95BudgetMillis;
+    }
+
     public String getStartCommand() {
         return startCommand;
     }
@@ -35,10 +357,99 @@ public class MinerPolicy {
         this.startCommand = startCommand;
     }
 
+    public SuspendMode getSuspendMode() {
+        return suspendMode == null ? SuspendMode.NONE : suspendMode; // null for unknown values
+    }
+
+    public void setSuspendMode(SuspendMode suspendMode) {
+        this.suspendMode = suspendMode;
+    }
+
+    public HttpApi getHttpApi() {
+        return httpApi == null ? new HttpApi() : httpApi;
+    }
+
+    public Cgroup getCgroup() {
+        return cgroup == null ? new Cgroup() : cgroup;
+    }
+
+    public CpuAffinity getCpuAffinity() {
+        return cpuAffinity == null ? new CpuAffinity() : cpuAffinity;
+    }
+
+    public Numa getNuma() {
+        return numa == null ? new Numa() : numa;
+    }
+
+    public MemoryGuard getMemoryGuard() {
+        return memoryGuard == null ? new MemoryGuard() : memoryGuard;
+    }
+
+    public ThreadSizing getThreadSizing() {
+        return threadSizing == null ? new ThreadSizing() : threadSizing;
+    }
+
+    public Tuning getTuning() {
+        return tuning == null ? new Tuning() : tuning;
+    }
+
+    public Schedule getSchedule() {
+        return schedule == null ? new Schedule() : schedule;
+    }
+
+    /**
+     * Get thread scaling steps, ordered by the player count they apply up to.
+     * @return steps, empty if the policy does not scale threads
+     */
+    public List<ThreadScalingStep> getThreadScaling() {
+        if (threadScaling == null) {
+            return new ArrayList<>();
+        }
+        List<ThreadScalingStep> steps = new ArrayList<>(threadScaling);
+        steps.sort(Comparator.comparingInt(ThreadScalingStep::getMaxPlayers));
+        return steps;
+    }
+
+    /**
+     * Get the number of threads the miner should run with.
+     * @param playerCount online player count
+     * @return number of threads, 0 if the player count exceeds every step, -1 if threads are not scaled
+     */
+    public int getScaledThreads(int playerCount) {
+        List<ThreadScalingStep> steps = getThreadScaling();
+        if (steps.isEmpty()) {
+            return -1;
+        }
+        for (ThreadScalingStep step : steps) {
+            if (playerCount <= step.getMaxPlayers()) {
+                return step.getThreads();
+            }
+        }
+        return 0;
+    }
+
+
+    /**
+     * Whether another policy sets the miner up the same way, i.e. it only differs in what a running MinerManager
+     * can pick up: player counts, timings, budgets, thread scaling, schedule, suspend mode and the start command.
+     * @param other policy to compare to
+     * @return true: can be applied in place; false: needs a new MinerManager
+     */
+    public boolean hasSameSetup(MinerPolicy other) {
+        Gson gson = new Gson();
+        return gson.toJsonTree(getHttpApi()).equals(gson.toJsonTree(other.getHttpApi()))
+                && gson.toJsonTree(getCgroup()).equals(gson.toJsonTree(other.getCgroup()))
+                && gson.toJsonTree(getCpuAffinity()).equals(gson.toJsonTree(other.getCpuAffinity()))
+                && gson.toJsonTree(getNuma()).equals(gson.toJsonTree(other.getNuma()))
+                && gson.toJsonTree(getMemoryGuard()).equals(gson.toJsonTree(other.getMemoryGuard()))
+                && gson.toJsonTree(getThreadSizing()).equals(gson.toJsonTree(other.getThreadSizing()));
+    }
 
     public static MinerPolicy loadPolicy(String filePath) throws IOException {
         Gson gson = new Gson();
-        return gson.fromJson(new JsonReader(new FileReader(filePath)), MinerPolicy.class);
+        try (JsonReader reader = new JsonReader(new FileReader(filePath))) {
+            return gson.fromJson(reader, MinerPolicy.class);
+        }
     }
 
 //    public MinerPolicy(MinerHat plugin, String minerName) throws Exception {
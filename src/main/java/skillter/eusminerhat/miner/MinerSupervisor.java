@@ -0,0 +1,157 @@
+package skillter.eusminerhat.miner;
+
+import skillter.eusminerhat.MinerHat;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.Arrays;
+
+/**
+ * Watches the process of a miner. Crashed miners are restarted with exponential backoff,
+ * and automatic restarts are given up once the miner keeps crashing.
+ * It also owns the scheduled rotation (restartMinerIntervalMinutes).
+ * Every spawned process is a new generation; a stop request ends the generation,
+ * so exits that were asked for are never taken for crashes, and at most one timer exists per generation.
+ */
+public class MinerSupervisor {
+    private static final long BACKOFF_BASE_SECONDS = 5;
+    private static final long BACKOFF_MAX_SECONDS = 5 * 60;
+    private static final long STABLE_RUN_SECONDS = 10 * 60; // crashes after running this long start a new backoff
+    private static final int CRASH_LOOP_THRESHOLD = 5;
+    private static final long CRASH_LOOP_WINDOW_SECONDS = 10 * 60;
+
+    private final MinerHat plugin;
+    private final MinerManager minerManager;
+
+    private long generation = 0;
+    private long startedMillis = 0;
+    private BukkitTask rotationTask = null;
+    private BukkitTask restartTask = null;
+    private int consecutiveCrashes = 0;
+    private final long[] crashMillis = new long[CRASH_LOOP_THRESHOLD];
+    private int crashIndex = 0;
+    private boolean crashLoopDetected = false;
+
+    MinerSupervisor(MinerHat plugin, MinerManager minerManager) {
+        this.plugin = plugin;
+        this.minerManager = minerManager;
+    }
+
+    /**
+     * Start watching a freshly spawned miner.
+     * @param process miner process
+     */
+    void onMinerStarted(Process process) {
+        long current = ++generation;
+        cancelTasks();
+        startedMillis = System.currentTimeMillis();
+
+        process.onExit().thenRun(() -> {
+            if (plugin.isEnabled()) {
+                plugin.getServer().getScheduler().runTask(plugin, () -> onMinerExited(current, process));
+            }
+        });
+        armRotation(current);
+    }
+
+    /**
+     * End the current generation, as its miner is going to exit on purpose.
+     */
+    void onStopRequested() {
+        generation++;
+        cancelTasks();
+    }
+
+    /**
+     * Whether automatic starts should wait, because a crashed miner is backing off or keeps crashing
+     * @return true: hold; false: the miner may be started
+     */
+    public boolean isHoldingStart() {
+        return restartTask != null || crashLoopDetected;
+    }
+
+    public boolean isCrashLoopDetected() {
+        return crashLoopDetected;
+    }
+
+    /**
+     * Forget about earlier crashes, e.g. when an admin starts the miner manually.
+     */
+    public void reset() {
+        if (restartTask != null) {
+            restartTask.cancel();
+            restartTask = null;
+        }
+        consecutiveCrashes = 0;
+        crashLoopDetected = false;
+        Arrays.fill(crashMillis, 0);
+    }
+
+    private void armRotation(long current) {
+        int minutes = plugin.getMinerHatConfig().getRestartMinerIntervalMinutes();
+        if (minutes <= 0) {
+            return;
+        }
+
+        rotationTask = plugin.getServer().getScheduler().runTaskLater(plugin, () -> {
+            rotationTask = null;
+            if (current != generation) {
+                return;
+            }
+            if (minerManager.getMinerState() == MinerManager.MinerState.RUNNING) {
+                plugin.sendInfo(plugin.l("miner.rotating"));
+                minerManager.restartMining();
+            } else { // Suspended, rotate once it has been running for another interval
+                armRotation(current);
+            }
+        }, minutes * 60L * 20L);
+    }
+
+    private void onMinerExited(long exitedGeneration, Process process) {
+        if (exitedGeneration != generation) { // Exit has been requested
+            return;
+        }
+        generation++;
+        cancelTasks();
+        minerManager.onMinerExited();
+
+        long now = System.currentTimeMillis();
+        if (now - startedMillis > STABLE_RUN_SECONDS * 1000) {
+            consecutiveCrashes = 0;
+        }
+        consecutiveCrashes++;
+        crashMillis[crashIndex] = now;
+        crashIndex = (crashIndex + 1) % crashMillis.length;
+
+        long oldestCrash = crashMillis[crashIndex]; // oldest of the latest CRASH_LOOP_THRESHOLD crashes
+        if (oldestCrash != 0 && now - oldestCrash <= CRASH_LOOP_WINDOW_SECONDS * 1000) {
+            crashLoopDetected = true;
+            plugin.sendSevere(String.format(plugin.l("miner.crashLoop"), CRASH_LOOP_THRESHOLD, CRASH_LOOP_WINDOW_SECONDS / 60));
+            return;
+        }
+
+        long delaySeconds = Math.min(BACKOFF_BASE_SECONDS << Math.min(consecutiveCrashes - 1, 16), BACKOFF_MAX_SECONDS);
+        plugin.sendWarn(String.format(plugin.l("miner.crashed"), process.exitValue(), delaySeconds));
+
+        long current = generation;
+        restartTask = plugin.getServer().getScheduler().runTaskLater(plugin, () -> {
+            restartTask = null;
+            if (current != generation) {
+                return;
+            }
+            if (minerManager.meetMiningCondition()) {
+                minerManager.startMining();
+            }
+        }, delaySeconds * 20L);
+    }
+
+    private void cancelTasks() {
+        if (rotationTask != null) {
+            rotationTask.cancel();
+            rotationTask = null;
+        }
+        if (restartTask != null) {
+            restartTask.cancel();
+            restartTask = null;
+        }
+    }
+}
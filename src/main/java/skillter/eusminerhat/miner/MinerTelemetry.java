@@ -0,0 +1,199 @@
+package skillter.eusminerhat.miner;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Latest numbers reported by a miner, plus a fixed-size series of its 10s hashrate.
+ * Values are kept in primitives; unknown hashrates are NaN.
+ */
+public class MinerTelemetry {
+    private static final int HISTORY_SIZE = 720;
+    private static final int MAX_THREADS = 256;
+
+    private double hashrate10s = Double.NaN;
+    private double hashrate60s = Double.NaN;
+    private double hashrate15m = Double.NaN;
+    private long sharesAccepted = 0;
+    private long sharesRejected = 0;
+    private long poolPingMillis = -1;
+    private long jobsReceived = 0;
+    private long poolDifficulty = -1;
+    private final double[] threadHashrates = new double[MAX_THREADS];
+    private int threadCount = 0;
+    private long updatedMillis = 0;
+
+    private final double[] history = new double[HISTORY_SIZE];
+    private final long[] historyMillis = new long[HISTORY_SIZE];
+    private int historyIndex = 0;
+    private int historyCount = 0;
+
+    /**
+     * Update from the response of xmrig's /2/summary endpoint.
+     * @param summary summary object
+     */
+    public synchronized void updateFromSummary(JsonObject summary) {
+        JsonObject hashrate = summary.getAsJsonObject("hashrate");
+        if (hashrate != null) {
+            JsonArray total = hashrate.getAsJsonArray("total");
+            if (total != null) {
+                hashrate10s = getDouble(total, 0);
+                hashrate60s = getDouble(total, 1);
+                hashrate15m = getDouble(total, 2);
+            }
+
+            JsonArray threads = hashrate.getAsJsonArray("threads");
+            threadCount = 0;
+            if (threads != null) {
+                for (int i = 0; i < threads.size() && i < MAX_THREADS; i++) {
+                    threadHashrates[threadCount++] = getDouble(threads.get(i).getAsJsonArray(), 0);
+                }
+            }
+        }
+
+        JsonObject connection = summary.getAsJsonObject("connection");
+        if (connection != null) {
+            sharesAccepted = getLong(connection, "accepted", sharesAccepted);
+            sharesRejected = getLong(connection, "rejected", sharesRejected);
+            poolPingMillis = getLong(connection, "ping", poolPingMillis);
+        } else {
+            JsonObject results = summary.getAsJsonObject("results");
+            if (results != null) {
+                long good = getLong(results, "shares_good", sharesAccepted);
+                sharesRejected = getLong(results, "shares_total", good + sharesRejected) - good;
+                sharesAccepted = good;
+            }
+        }
+
+        recordHashrate(hashrate10s);
+    }
+
+    /**
+     * Update hashrates parsed from the miner's console output.
+     */
+    synchronized void updateHashrates(double hashrate10s, double hashrate60s, double hashrate15m) {
+        this.hashrate10s = hashrate10s;
+        this.hashrate60s = hashrate60s;
+        this.hashrate15m = hashrate15m;
+        recordHashrate(hashrate10s);
+    }
+
+    /**
+     * Update share counters parsed from the miner's console output.
+     */
+    synchronized void updateShares(long accepted, long rejected, long difficulty) {
+        this.sharesAccepted = accepted;
+        this.sharesRejected = rejected;
+        this.poolDifficulty = difficulty;
+        this.updatedMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Count a job parsed from the miner's console output.
+     */
+    synchronized void recordJob(long difficulty) {
+        this.jobsReceived++;
+        this.poolDifficulty = difficulty;
+        this.updatedMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Record a hashrate sample into the series and mark the telemetry as updated.
+     * @param hashrate hashrate in H/s
+     */
+    synchronized void recordHashrate(double hashrate) {
+        updatedMillis = System.currentTimeMillis();
+        if (Double.isNaN(hashrate)) {
+            return;
+        }
+        history[historyIndex] = hashrate;
+        historyMillis[historyIndex] = updatedMillis;
+        historyIndex = (historyIndex + 1) % HISTORY_SIZE;
+        historyCount = Math.min(historyCount + 1, HISTORY_SIZE);
+    }
+
+    /**
+     * Get the average of the hashrate samples recorded since a point in time.
+     * @param sinceMillis epoch milliseconds
+     * @return average hashrate in H/s, NaN if there is no sample
+     */
+    public synchronized double getAverageHashrateSince(long sinceMillis) {
+        double sum = 0;
+        int count = 0;
+        for (int i = 0; i < historyCount; i++) {
+            int index = (historyIndex - 1 - i + HISTORY_SIZE) % HISTORY_SIZE;
+            if (historyMillis[index] < sinceMillis) {
+                break;
+            }
+            sum += history[index];
+            count++;
+        }
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    public synchronized double getHashrate10s() {
+        return hashrate10s;
+    }
+
+    public synchronized double getHashrate60s() {
+        return hashrate60s;
+    }
+
+    public synchronized double getHashrate15m() {
+        return hashrate15m;
+    }
+
+    public synchronized long getSharesAccepted() {
+        return sharesAccepted;
+    }
+
+    public synchronized long getSharesRejected() {
+        return sharesRejected;
+    }
+
+    public synchronized long getPoolPingMillis() {
+        return poolPingMillis;
+    }
+
+    public synchronized long getJobsReceived() {
+        return jobsReceived;
+    }
+
+    public synchronized long getPoolDifficulty() {
+        return poolDifficulty;
+    }
+
+    public synchronized long getUpdatedMillis() {
+        return updatedMillis;
+    }
+
+    /**
+     * Get the 10s hashrate of each thread.
+     * @return a copy, empty if unknown
+     */
+    public synchronized double[] getThreadHashrates() {
+        double[] copy = new double[threadCount];
+        System.arraycopy(threadHashrates, 0, copy, 0, threadCount);
+        return copy;
+    }
+
+    public static String formatHashrate(double hashrate) {
+        return Double.isNaN(hashrate) ? "n/a" : String.format("%.1f", hashrate);
+    }
+
+    private static double getDouble(JsonArray array, int index) {
+        if (array == null || index >= array.size() || array.get(index).isJsonNull()) {
+            return Double.NaN;
+        }
+        return array.get(index).getAsDouble();
+    }
+
+    private static long getLong(JsonObject object, String key, long fallback) {
+        JsonElement element = object.get(key);
+        if (element == null || element.isJsonNull()) {
+            return fallback;
+        }
+        return element.getAsLong();
+    }
+}
@@ -0,0 +1,136 @@
+package skillter.eusminerhat.miner;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Weekly windows in which mining is allowed, evaluated in the policy's time zone.
+ * Window times are wall-clock times: a start falling into a DST gap is shifted forward by the length of the gap,
+ * and a time occurring twice in a DST overlap is taken at its first occurrence.
+ */
+public class MiningSchedule {
+    private static final int LOOKBACK_DAYS = 1; // a window may span midnight
+    private static final int LOOKAHEAD_DAYS = 8;
+
+    private static class Window {
+        final Set<DayOfWeek> days;
+        final LocalTime start;
+        final LocalTime end;
+        final int maxThreads;
+
+        Window(Set<DayOfWeek> days, LocalTime start, LocalTime end, int maxThreads) {
+            this.days = days;
+            this.start = start;
+            this.end = end;
+            this.maxThreads = maxThreads;
+        }
+
+        Instant getStart(LocalDate date, ZoneId zone) {
+            return ZonedDateTime.of(date, start, zone).toInstant();
+        }
+
+        Instant getEnd(LocalDate date, ZoneId zone) {
+            LocalDate endDate = end.isAfter(start) ? date : date.plusDays(1); // ends on the next day
+            return ZonedDateTime.of(endDate, end, zone).toInstant();
+        }
+    }
+
+    private final ZoneId zone;
+    private final List<Window> windows = new ArrayList<>();
+
+    /**
+     * @param schedule schedule declared by the policy
+     * @throws java.time.DateTimeException if the time zone or a time is malformed
+     */
+    public MiningSchedule(MinerPolicy.Schedule schedule) {
+        this.zone = schedule.getTimeZone().isEmpty() ? ZoneId.systemDefault() : ZoneId.of(schedule.getTimeZone());
+        for (MinerPolicy.ScheduleWindow window : schedule.getWindows()) {
+            Set<DayOfWeek> days = EnumSet.allOf(DayOfWeek.class);
+            if (window.getDays() != null && !window.getDays().isEmpty()) {
+                days = EnumSet.noneOf(DayOfWeek.class);
+                for (DayOfWeek day : window.getDays()) {
+                    if (day != null) { // null for unknown values
+                        days.add(day);
+                    }
+                }
+            }
+            windows.add(new Window(days, LocalTime.parse(window.getStart()), LocalTime.parse(window.getEnd()), window.getMaxThreads()));
+        }
+    }
+
+    /**
+     * Whether the schedule restricts mining at all
+     * @return true: mining is restricted to the windows; false: no window declared, mining is always allowed
+     */
+    public boolean isEnabled() {
+        return !windows.isEmpty();
+    }
+
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    /**
+     * Whether mining is allowed at a point in time
+     * @param now point in time
+     * @return true: inside a window, or no window declared; false: outside of all windows
+     */
+    public boolean isAllowed(Instant now) {
+        return !isEnabled() || getThreadCap(now) >= 0;
+    }
+
+    /**
+     * Get the thread cap of the windows open at a point in time. Overlapping windows allow the larger cap.
+     * @param now point in time
+     * @return maximum number of threads, 0 for no cap, -1 if no window is open
+     */
+    public int getThreadCap(Instant now) {
+        int cap = -1;
+        LocalDate today = now.atZone(zone).toLocalDate();
+        for (Window window : windows) {
+            for (int offset = -LOOKBACK_DAYS; offset <= 0; offset++) {
+                LocalDate date = today.plusDays(offset);
+                if (!window.days.contains(date.getDayOfWeek())) {
+                    continue;
+                }
+                if (!now.isBefore(window.getStart(date, zone)) && now.isBefore(window.getEnd(date, zone))) {
+                    int windowCap = Math.max(window.maxThreads, 0);
+                    cap = (cap == 0 || windowCap == 0) ? 0 : Math.max(cap, windowCap);
+                }
+            }
+        }
+        return cap;
+    }
+
+    /**
+     * Get the next point in time at which a window opens or closes.
+     * @param now point in time
+     * @return next boundary after now, null if there is none
+     */
+    public Instant getNextTransition(Instant now) {
+        Instant next = null;
+        LocalDate today = now.atZone(zone).toLocalDate();
+        for (Window window : windows) {
+            for (int offset = -LOOKBACK_DAYS; offset <= LOOKAHEAD_DAYS; offset++) {
+                LocalDate date = today.plusDays(offset);
+                if (!window.days.contains(date.getDayOfWeek())) {
+                    continue;
+                }
+                for (Instant boundary : new Instant[] { window.getStart(date, zone), window.getEnd(date, zone) }) {
+                    if (boundary.isAfter(now) && (next == null || boundary.isBefore(next))) {
+                        next = boundary;
+                    }
+                }
+            }
+        }
+        return next;
+    }
+}
@@ -0,0 +1,97 @@
+package skillter.eusminerhat.miner;
+
+import skillter.eusminerhat.MinerHat;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the miner directory and applies changed policy files to the running miners.
+ * Policies are parsed on the watcher thread and handed to the main thread.
+ */
+public class PolicyWatcher extends Thread {
+    private static final long SETTLE_MILLIS = 500; // editors save in several steps
+
+    private final MinerHat plugin;
+    private final Path directory;
+    private final WatchService watchService;
+
+    public PolicyWatcher(MinerHat plugin, String directory) throws IOException {
+        super("MinerHat-PolicyWatcher");
+        this.plugin = plugin;
+        this.directory = Paths.get(directory);
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+        setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                Set<String> changed = new HashSet<>();
+                collect(watchService.take(), changed);
+                WatchKey key;
+                while ((key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    collect(key, changed);
+                }
+
+                for (String miner : changed) {
+                    reload(miner);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ignored) {
+            // Closed together with the plugin
+        }
+    }
+
+    private void collect(WatchKey key, Set<String> changed) {
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                continue;
+            }
+            String file = event.context().toString();
+            if (file.endsWith(".json") && !file.endsWith(".profile.json")) { // tuning profiles are written by the miners themselves
+                changed.add(file.substring(0, file.length() - ".json".length()));
+            }
+        }
+        key.reset();
+    }
+
+    private void reload(String miner) {
+        MinerPolicy policy;
+        try {
+            policy = MinerPolicy.loadPolicy(directory.resolve(miner + ".json").toString());
+        } catch (Exception e) {
+            plugin.sendWarn(String.format(plugin.l("miner.policyReloadFailed"), miner, e.getLocalizedMessage()));
+            return;
+        }
+        if (policy == null) { // Empty file, the editor is still writing
+            return;
+        }
+
+        if (plugin.isEnabled()) {
+            plugin.getServer().getScheduler().runTask(plugin, () -> plugin.applyMinerPolicy(miner, policy));
+        }
+    }
+
+    /**
+     * Stop watching.
+     */
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException ignored) { }
+    }
+}
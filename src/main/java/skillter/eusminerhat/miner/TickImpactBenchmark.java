@@ -0,0 +1,204 @@
+package skillter.eusminerhat.miner;
+
+import skillter.eusminerhat.MinerHat;
+import skillter.eusminerhat.monitor.TickHistogram;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures what mining costs the server: the miner is cycled through off, half and full threads for a number of rounds,
+ * while the tick durations of each mode are recorded into a histogram and the hashrate is averaged.
+ * The miner is driven through the regular MinerManager paths, with its automatic control paused meanwhile.
+ * Tick durations are the time the server works on each tick where it reports it (Paper); otherwise they are
+ * the time between two ticks, which does not drop below 50 ms while the server keeps up, and the report says so.
+ */
+public class TickImpactBenchmark {
+    private enum Mode {
+        OFF("miner.benchmark.mode.off"),
+        HALF("miner.benchmark.mode.half"),
+        FULL("miner.benchmark.mode.full");
+
+        final String token;
+
+        Mode(String token) {
+            this.token = token;
+        }
+    }
+
+    private static final int MAX_SETTLE_SECONDS = 30; // hashrate and ticks need a while to settle after a change
+
+    private final MinerHat plugin;
+    private final MinerManager minerManager;
+    private final CommandSender requester;
+    private final int windowSeconds;
+    private final int rounds;
+    private final int fullThreads;
+
+    private final TickHistogram[] histograms = new TickHistogram[Mode.values().length];
+    private final double[] hashrateSums = new double[Mode.values().length];
+    private final int[] hashrateCounts = new int[Mode.values().length];
+    private final int[] threadMismatches = new int[Mode.values().length];
+    private int phase = 0;
+    private long recordingSinceMillis = 0;
+    private BukkitTask task = null;
+    private boolean finished = false;
+
+    public TickImpactBenchmark(MinerHat plugin, MinerManager minerManager, CommandSender requester, int windowSeconds, int rounds) {
+        this.plugin = plugin;
+        this.minerManager = minerManager;
+        this.requester = requester;
+        this.windowSeconds = windowSeconds;
+        this.rounds = rounds;
+        this.fullThreads = minerManager.getMaximumThreads();
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new TickHistogram();
+        }
+    }
+
+    public MinerManager getMinerManager() {
+        return minerManager;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public int getTotalSeconds() {
+        return windowSeconds * rounds * Mode.values().length;
+    }
+
+    public void start() {
+        minerManager.setAutomaticControlPaused(true);
+        startPhase();
+    }
+
+    /**
+     * Stop the benchmark early. The results collected so far are reported.
+     */
+    public void cancel() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        finish();
+    }
+
+    private Mode getMode() {
+        return Mode.values()[phase % Mode.values().length];
+    }
+
+    private int getThreads(Mode mode) {
+        switch (mode) {
+            case HALF:
+                return Math.max(fullThreads / 2, 1);
+            case FULL:
+                return fullThreads;
+            default:
+                return 0;
+        }
+    }
+
+    private void startPhase() {
+        Mode mode = getMode();
+        if (mode == Mode.OFF) {
+            minerManager.suspendMining(); // stops the miner if the policy does not allow suspending
+        } else {
+            minerManager.startMining(); // resumes a suspended miner
+            minerManager.setMinerThreads(getThreads(mode));
+        }
+        plugin.sendInfo(String.format(plugin.l("miner.benchmark.phase"), minerManager.getName(),
+                phase / Mode.values().length + 1, rounds, plugin.l(mode.token)));
+
+        int settleSeconds = Math.min(windowSeconds / 4, MAX_SETTLE_SECONDS);
+        task = plugin.getServer().getScheduler().runTaskLater(plugin, this::startRecording, settleSeconds * 20L);
+    }
+
+    private void startRecording() {
+        Mode mode = getMode();
+        if (mode != Mode.OFF && minerManager.getMinerThreads() != getThreads(mode)) {
+            minerManager.setMinerThreads(getThreads(mode)); // retry, e.g. the HTTP API was not up yet
+        }
+        recordingSinceMillis = System.currentTimeMillis();
+        plugin.getTickMonitor().setRecorder(histograms[mode.ordinal()]);
+
+        int settleSeconds = Math.min(windowSeconds / 4, MAX_SETTLE_SECONDS);
+        task = plugin.getServer().getScheduler().runTaskLater(plugin, this::endPhase, (windowSeconds - settleSeconds) * 20L);
+    }
+
+    private void endPhase() {
+        plugin.getTickMonitor().setRecorder(null);
+        Mode mode = getMode();
+        if (mode != Mode.OFF) {
+            double hashrate = minerManager.getTelemetry().getAverageHashrateSince(recordingSinceMillis);
+            if (!Double.isNaN(hashrate)) {
+                hashrateSums[mode.ordinal()] += hashrate;
+                hashrateCounts[mode.ordinal()]++;
+            }
+            if (minerManager.getMinerThreads() != getThreads(mode)) {
+                threadMismatches[mode.ordinal()]++;
+            }
+        }
+
+        phase++;
+        if (phase < rounds * Mode.values().length) {
+            startPhase();
+        } else {
+            task = null;
+            finish();
+        }
+    }
+
+    private void finish() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        plugin.getTickMonitor().setRecorder(null);
+        minerManager.setAutomaticControlPaused(false);
+        minerManager.requestCheck(); // hand the miner back to the policy
+
+        for (String line : getReport()) {
+            plugin.sendInfo(line);
+            if (requester instanceof Player && ((Player) requester).isOnline()) { // the console reads the log already
+                requester.sendMessage(plugin.prefixForEachLine(line));
+            }
+        }
+    }
+
+    /**
+     * Build the report table: hashrate of each mode against the tick time it adds to the miner being off.
+     * @return lines
+     */
+    public List<String> getReport() {
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format(plugin.l("miner.benchmark.header"), minerManager.getName(), windowSeconds, rounds));
+        if (!plugin.getTickMonitor().isTickWorkMeasured()) {
+            lines.add(plugin.l("miner.benchmark.tickIntervals"));
+        }
+        TickHistogram off = histograms[Mode.OFF.ordinal()];
+        double offP50 = off.getPercentileMillis(50);
+        double offP99 = off.getPercentileMillis(99);
+        for (Mode mode : Mode.values()) {
+            TickHistogram histogram = histograms[mode.ordinal()];
+            if (histogram.getTotalCount() == 0) {
+                continue;
+            }
+            double hashrate = mode == Mode.OFF ? 0 :
+                    hashrateCounts[mode.ordinal()] == 0 ? Double.NaN : hashrateSums[mode.ordinal()] / hashrateCounts[mode.ordinal()];
+            double p50 = histogram.getPercentileMillis(50);
+            double p99 = histogram.getPercentileMillis(99);
+            lines.add(String.format(plugin.l("miner.benchmark.row"), plugin.l(mode.token), getThreads(mode),
+                    MinerTelemetry.formatHashrate(hashrate), p50, p99,
+                    off.getTotalCount() == 0 ? 0 : p50 - offP50, off.getTotalCount() == 0 ? 0 : p99 - offP99,
+                    histogram.getTotalCount()));
+            if (threadMismatches[mode.ordinal()] > 0) {
+                lines.add(String.format(plugin.l("miner.benchmark.threadMismatch"), plugin.l(mode.token), threadMismatches[mode.ordinal()]));
+            }
+        }
+        return lines;
+    }
+}
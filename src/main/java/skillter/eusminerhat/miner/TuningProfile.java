@@ -0,0 +1,118 @@
+package skillter.eusminerhat.miner;
+
+import skillter.eusminerhat.util.CpuList;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The best configuration found by the auto-tuner, stored next to the policy as <miner>.profile.json.
+ * Its arguments are appended to the start command, so they take precedence over the hand-written ones.
+ */
+public class TuningProfile {
+    private int threads;
+    private String cpuAffinity = ""; // CPU list, empty: not pinned
+    private boolean hugePages = true;
+    private double hashrate;
+    private int cores; // physical cores the miner occupied
+    private double hashratePerCore;
+    private String startCommand; // the command the profile has been tuned for
+    private long tunedMillis;
+
+    TuningProfile(int threads, String cpuAffinity, boolean hugePages) {
+        this.threads = threads;
+        this.cpuAffinity = cpuAffinity;
+        this.hugePages = hugePages;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public String getCpuAffinity() {
+        return cpuAffinity == null ? "" : cpuAffinity;
+    }
+
+    public boolean isHugePages() {
+        return hugePages;
+    }
+
+    public double getHashrate() {
+        return hashrate;
+    }
+
+    public int getCores() {
+        return cores;
+    }
+
+    public double getHashratePerCore() {
+        return hashratePerCore;
+    }
+
+    public String getStartCommand() {
+        return startCommand;
+    }
+
+    public long getTunedMillis() {
+        return tunedMillis;
+    }
+
+    void setResult(double hashrate, int cores, String startCommand) {
+        this.hashrate = hashrate;
+        this.cores = Math.max(cores, 1);
+        this.hashratePerCore = hashrate / this.cores;
+        this.startCommand = startCommand;
+        this.tunedMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Get the xmrig arguments applying this profile.
+     * @return arguments
+     */
+    public List<String> toArguments() {
+        List<String> args = new ArrayList<>();
+        args.add("--threads=" + threads);
+        long[] mask = CpuList.parse(getCpuAffinity()).toLongArray();
+        if (mask.length == 1) { // xmrig takes a 64-bit mask
+            args.add("--cpu-affinity=0x" + Long.toHexString(mask[0]));
+        }
+        if (!hugePages) {
+            args.add("--no-huge-pages");
+        }
+        return args;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d threads, CPUs %s, huge pages %s", threads, getCpuAffinity().isEmpty() ? "any" : getCpuAffinity(), hugePages);
+    }
+
+    /**
+     * Load a profile.
+     * @param file profile file
+     * @return profile, null if the file does not exist
+     */
+    public static TuningProfile load(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        try (JsonReader reader = new JsonReader(new FileReader(file))) {
+            return new Gson().fromJson(reader, TuningProfile.class);
+        }
+    }
+
+    public void save(File file) throws IOException {
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        try (Writer writer = new FileWriter(file)) {
+            gson.toJson(this, writer);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package skillter.eusminerhat.miner;
+
+import skillter.eusminerhat.util.HttpRequest;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Client for the HTTP API of a local xmrig instance.
+ * The API has to be enabled with --http-port, and --http-no-restricted for any call that changes the miner.
+ */
+public class XmrigApiClient {
+    private static final int TIMEOUT = 1000 * 3;
+
+    private final String baseUrl;
+    private final String accessToken;
+
+    public XmrigApiClient(String host, int port, String accessToken) {
+        this.baseUrl = "http://" + host + ":" + port;
+        this.accessToken = accessToken;
+    }
+
+    public XmrigApiClient(MinerPolicy.HttpApi httpApi) {
+        this(httpApi.getHost(), httpApi.getPort(), httpApi.getAccessToken());
+    }
+
+    /**
+     * Pause mining. The RandomX dataset is kept in memory.
+     * @throws IOException on I/O error or if xmrig rejects the call
+     */
+    public void pause() throws IOException {
+        callJsonRpc("pause");
+    }
+
+    /**
+     * Resume mining after {@link #pause()}.
+     * @throws IOException on I/O error or if xmrig rejects the call
+     */
+    public void resume() throws IOException {
+        callJsonRpc("resume");
+    }
+
+    /**
+     * Fetch the miner summary, including hashrate, shares and pool connection.
+     * @return summary object
+     * @throws IOException on I/O error or if xmrig rejects the call
+     */
+    public JsonObject getSummary() throws IOException {
+        String jsonText = authorize(HttpRequest.get(new URL(baseUrl + "/2/summary")))
+                .execute(TIMEOUT)
+                .expectResponseCode(200)
+                .returnContent()
+                .asString("UTF-8");
+        return JsonParser.parseString(jsonText).getAsJsonObject();
+    }
+
+    /**
+     * Fetch the running configuration.
+     * @return configuration object
+     * @throws IOException on I/O error or if xmrig rejects the call
+     */
+    public JsonObject getConfig() throws IOException {
+        String jsonText = authorize(HttpRequest.get(new URL(baseUrl + "/1/config")))
+                .execute(TIMEOUT)
+                .expectResponseCode(200)
+                .returnContent()
+                .asString("UTF-8");
+        return JsonParser.parseString(jsonText).getAsJsonObject();
+    }
+
+    /**
+     * Replace the running configuration. xmrig applies it without restarting.
+     * @param config complete configuration object, usually obtained from {@link #getConfig()}
+     * @throws IOException on I/O error or if xmrig rejects the call
+     */
+    public void putConfig(JsonObject config) throws IOException {
+        authorize(HttpRequest.request("PUT", new URL(baseUrl + "/1/config")))
+                .header("Content-Type", "application/json")
+                .body(config.toString())
+                .execute(TIMEOUT)
+                .expectResponseCode(200, 204)
+                .returnContent();
+    }
+
+    /**
+     * Change the number of RandomX CPU threads.
+     * @param threads number of threads
+     * @throws IOException on I/O error or if xmrig rejects the call
+     */
+    public void setCpuThreads(int threads) throws IOException {
+        JsonObject config = getConfig();
+        JsonObject cpu = config.getAsJsonObject("cpu");
+        if (cpu == null) {
+            cpu = new JsonObject();
+            config.add("cpu", cpu);
+        }
+
+        JsonObject profile = new JsonObject();
+        profile.addProperty("intensity", 1);
+        profile.addProperty("threads", threads);
+        profile.addProperty("affinity", -1);
+        cpu.add("rx", profile);
+        putConfig(config);
+    }
+
+    private void callJsonRpc(String method) throws IOException {
+        authorize(HttpRequest.post(new URL(baseUrl + "/json_rpc")))
+                .header("Content-Type", "application/json")
+                .body(String.format("{\"method\":\"%s\",\"id\":1,\"jsonrpc\":\"2.0\"}", method))
+                .execute(TIMEOUT)
+                .expectResponseCode(200)
+                .returnContent();
+    }
+
+    private HttpRequest authorize(HttpRequest request) {
+        if (accessToken != null && !accessToken.isEmpty()) {
+            request.header("Authorization", "Bearer " + accessToken);
+        }
+        return request;
+    }
+}
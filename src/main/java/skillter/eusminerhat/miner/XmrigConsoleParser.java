@@ -0,0 +1,176 @@
+package skillter.eusminerhat.miner;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Extracts metrics from xmrig's console output for miners without the HTTP API.
+ * Recognizes the speed, accepted/rejected and new job lines, e.g.
+ * <pre>
+ * [2022-08-01 12:00:00.123]  miner    speed 10s/60s/15m 2101.3 2098.7 n/a H/s max 2140.0 H/s
+ * [2022-08-01 12:00:00.123]  cpu      accepted (12/0) diff 120001 (45 ms)
+ * [2022-08-01 12:00:00.123]  net      new job from xmr.f2pool.com:13531 diff 120001 algo rx/0 height 2681102
+ * </pre>
+ * Lines are scanned byte by byte into a reusable buffer with ANSI color sequences removed,
+ * so parsing does not allocate and does not create Strings.
+ * A line the pump commits in parts, as it is longer than the pump's line buffer, is put back together before it is parsed.
+ */
+class XmrigConsoleParser implements MinerOutputPump.LineListener {
+    private static final byte ESC = 0x1b;
+    private static final byte[] SPEED = ascii("speed 10s/60s/15m ");
+    private static final byte[] ACCEPTED = ascii("accepted (");
+    private static final byte[] REJECTED = ascii("rejected (");
+    private static final byte[] NEW_JOB = ascii("new job from ");
+    private static final byte[] DIFF = ascii(" diff ");
+
+    // States of the ANSI escape sequence filter
+    private static final int TEXT = 0;
+    private static final int ESCAPE = 1;
+    private static final int CONTROL_SEQUENCE = 2;
+
+    private final MinerTelemetry telemetry;
+    private final byte[] line = new byte[MinerOutputPump.LINE_BUFFER_SIZE];
+    private int length = 0;
+    private int position = 0; // cursor of the number readers
+    private int escapeState = TEXT; // carried over to the next part of a split line
+
+    XmrigConsoleParser(MinerTelemetry telemetry) {
+        this.telemetry = telemetry;
+    }
+
+    @Override
+    public synchronized void onLine(byte[] source, int offset, int sourceLength) {
+        stripEscapeSequences(source, offset, sourceLength);
+        if (sourceLength == 0 || source[offset + sourceLength - 1] != '\n') { // the rest of the line follows
+            return;
+        }
+
+        int at;
+        if ((at = indexOf(SPEED, 0)) >= 0) {
+            position = at + SPEED.length;
+            double hashrate10s = readDouble();
+            double hashrate60s = readDouble();
+            double hashrate15m = readDouble();
+            telemetry.updateHashrates(hashrate10s, hashrate60s, hashrate15m);
+        } else if ((at = indexOf(ACCEPTED, 0)) >= 0 || (at = indexOf(REJECTED, 0)) >= 0) {
+            position = at + ACCEPTED.length; // same length as REJECTED
+            long accepted = readLong();
+            long rejected = readLong();
+            telemetry.updateShares(accepted, rejected, readDifficulty(position));
+        } else if ((at = indexOf(NEW_JOB, 0)) >= 0) {
+            telemetry.recordJob(readDifficulty(at + NEW_JOB.length));
+        }
+        length = 0;
+        escapeState = TEXT;
+    }
+
+    /**
+     * Append a part of a line to the line buffer without its ANSI escape sequences.
+     * What does not fit is dropped, the metrics are at the start of the line.
+     */
+    private void stripEscapeSequences(byte[] source, int offset, int sourceLength) {
+        int state = escapeState;
+        for (int i = offset; i < offset + sourceLength && length < line.length; i++) {
+            byte b = source[i];
+            switch (state) {
+                case TEXT:
+                    if (b == ESC) {
+                        state = ESCAPE;
+                    } else if (b != '\n') {
+                        line[length++] = b;
+                    }
+                    break;
+                case ESCAPE:
+                    state = b == '[' ? CONTROL_SEQUENCE : TEXT;
+                    break;
+                case CONTROL_SEQUENCE:
+                    if (b >= 0x40 && b <= 0x7e) { // final byte
+                        state = TEXT;
+                    }
+                    break;
+            }
+        }
+        escapeState = state;
+    }
+
+    private long readDifficulty(int from) {
+        int at = indexOf(DIFF, from);
+        if (at < 0) {
+            return -1;
+        }
+        position = at + DIFF.length;
+        return readLong();
+    }
+
+    /**
+     * Read the next unsigned integer from the cursor.
+     * @return value, -1 if there is none
+     */
+    private long readLong() {
+        skipToDigit();
+        if (position >= length) {
+            return -1;
+        }
+        long value = 0;
+        while (position < length && isDigit(line[position])) {
+            value = value * 10 + (line[position++] - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Read the next unsigned decimal from the cursor. "n/a" is read as NaN.
+     * @return value, NaN if there is none
+     */
+    private double readDouble() {
+        while (position < length && line[position] == ' ') {
+            position++;
+        }
+        if (position >= length || !isDigit(line[position])) {
+            while (position < length && line[position] != ' ') { // skip n/a
+                position++;
+            }
+            return Double.NaN;
+        }
+
+        double value = 0;
+        while (position < length && isDigit(line[position])) {
+            value = value * 10 + (line[position++] - '0');
+        }
+        if (position < length && line[position] == '.') {
+            position++;
+            double scale = 0.1;
+            while (position < length && isDigit(line[position])) {
+                value += (line[position++] - '0') * scale;
+                scale /= 10;
+            }
+        }
+        return value;
+    }
+
+    private void skipToDigit() {
+        while (position < length && !isDigit(line[position])) {
+            position++;
+        }
+    }
+
+    private int indexOf(byte[] pattern, int from) {
+        outer:
+        for (int i = from; i <= length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (line[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
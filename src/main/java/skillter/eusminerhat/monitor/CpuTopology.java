@@ -0,0 +1,175 @@
+package skillter.eusminerhat.monitor;
+
+import skillter.eusminerhat.util.CpuList;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Physical cores and last-level caches as listed in /sys/devices/system/cpu. The root can point to a fake tree
+ * laid out the same way (cpu0/topology/thread_siblings_list, cpu0/cache/index3/{level,type,size,shared_cpu_list}, ...).
+ */
+public class CpuTopology {
+    private final BitSet cpus;
+    private final Set<BitSet> cores; // SMT siblings of each physical core
+    private final Map<BitSet, Long> lastLevelCaches; // CPUs sharing each cache, and its size
+    private final int lastLevel;
+
+    private CpuTopology(BitSet cpus, Set<BitSet> cores, Map<BitSet, Long> lastLevelCaches, int lastLevel) {
+        this.cpus = cpus;
+        this.cores = cores;
+        this.lastLevelCaches = lastLevelCaches;
+        this.lastLevel = lastLevel;
+    }
+
+    /**
+     * Read the topology of the CPUs.
+     * @param sysfsRoot usually /sys/devices/system/cpu
+     * @return topology
+     * @throws IOException if the root cannot be read
+     */
+    public static CpuTopology read(String sysfsRoot) throws IOException {
+        BitSet cpus = new BitSet();
+        Set<BitSet> cores = new LinkedHashSet<>();
+        Map<BitSet, Long> caches = new LinkedHashMap<>();
+        int lastLevel = 0;
+        try (DirectoryStream<Path> cpuDirs = Files.newDirectoryStream(Paths.get(sysfsRoot), "cpu[0-9]*")) {
+            for (Path cpuDir : cpuDirs) {
+                int cpu = Integer.parseInt(cpuDir.getFileName().toString().substring("cpu".length()));
+                Path siblings = cpuDir.resolve("topology/thread_siblings_list");
+                if (!Files.exists(siblings)) { // offline
+                    continue;
+                }
+                cpus.set(cpu);
+                cores.add(CpuList.parse(readLine(siblings)));
+
+                Path cacheDir = cpuDir.resolve("cache");
+                if (!Files.isDirectory(cacheDir)) {
+                    continue;
+                }
+                try (DirectoryStream<Path> indexDirs = Files.newDirectoryStream(cacheDir, "index[0-9]*")) {
+                    for (Path indexDir : indexDirs) {
+                        if (readLine(indexDir.resolve("type")).equals("Instruction")) {
+                            continue;
+                        }
+                        int level = Integer.parseInt(readLine(indexDir.resolve("level")));
+                        if (level < lastLevel) {
+                            continue;
+                        }
+                        if (level > lastLevel) { // a higher level shows up, forget the lower ones
+                            caches.clear();
+                            lastLevel = level;
+                        }
+                        caches.put(CpuList.parse(readLine(indexDir.resolve("shared_cpu_list"))), parseSize(readLine(indexDir.resolve("size"))));
+                    }
+                }
+            }
+        }
+        return new CpuTopology(cpus, cores, caches, lastLevel);
+    }
+
+    private static String readLine(Path path) throws IOException {
+        return new String(Files.readAllBytes(path), StandardCharsets.US_ASCII).trim();
+    }
+
+    /**
+     * Parse a cache size, e.g. 32768K or 32M
+     * @return bytes
+     */
+    static long parseSize(String size) {
+        long unit = 1;
+        char suffix = Character.toUpperCase(size.charAt(size.length() - 1));
+        if (suffix == 'K') {
+            unit = 1024;
+        } else if (suffix == 'M') {
+            unit = 1024 * 1024;
+        } else if (suffix == 'G') {
+            unit = 1024 * 1024 * 1024;
+        }
+        return Long.parseLong(unit == 1 ? size : size.substring(0, size.length() - 1)) * unit;
+    }
+
+    /**
+     * Get the online CPUs
+     * @return CPUs
+     */
+    public BitSet getCpus() {
+        return (BitSet) cpus.clone();
+    }
+
+    /**
+     * Get the physical cores
+     * @return SMT siblings of each core
+     */
+    public List<BitSet> getCores() {
+        List<BitSet> copies = new ArrayList<>();
+        for (BitSet core : cores) {
+            copies.add((BitSet) core.clone());
+        }
+        return copies;
+    }
+
+    /**
+     * Count the physical cores having at least one of the given CPUs
+     * @param within CPUs to count, e.g. those of a NUMA node
+     * @return physical cores
+     */
+    public int countCores(BitSet within) {
+        int count = 0;
+        for (BitSet core : cores) {
+            if (core.intersects(within)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the level of the last-level cache, usually 3
+     * @return level, 0 if no cache is listed
+     */
+    public int getLastLevel() {
+        return lastLevel;
+    }
+
+    /**
+     * Sum up the last-level caches shared by the given CPUs. Each cache counts once, however many CPUs share it.
+     * @param within CPUs to count, e.g. those of a NUMA node
+     * @return bytes, 0 if no cache is listed
+     */
+    public long getLastLevelCacheBytes(BitSet within) {
+        long bytes = 0;
+        for (Map.Entry<BitSet, Long> cache : lastLevelCaches.entrySet()) {
+            if (cache.getKey().intersects(within)) {
+                bytes += cache.getValue();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Count the last-level caches shared by the given CPUs
+     * @param within CPUs to count
+     * @return caches
+     */
+    public int countLastLevelCaches(BitSet within) {
+        int count = 0;
+        for (BitSet sharing : lastLevelCaches.keySet()) {
+            if (sharing.intersects(within)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
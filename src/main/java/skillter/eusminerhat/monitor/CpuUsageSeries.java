@@ -0,0 +1,58 @@
+package skillter.eusminerhat.monitor;
+
+/**
+ * Fixed-size series of CPU usage samples of a process tree, kept in primitive arrays.
+ */
+public class CpuUsageSeries {
+    private static final int SIZE = 720;
+
+    private final double[] cpuPercent = new double[SIZE]; // 100 per fully used CPU
+    private final double[] contextSwitchesPerSecond = new double[SIZE];
+    private final double[] runDelayMillisPerSecond = new double[SIZE]; // time spent waiting on a run queue
+    private final long[] sampleMillis = new long[SIZE];
+    private int index = 0;
+    private int count = 0;
+
+    synchronized void record(double cpuPercent, double contextSwitchesPerSecond, double runDelayMillisPerSecond) {
+        this.cpuPercent[index] = cpuPercent;
+        this.contextSwitchesPerSecond[index] = contextSwitchesPerSecond;
+        this.runDelayMillisPerSecond[index] = runDelayMillisPerSecond;
+        this.sampleMillis[index] = System.currentTimeMillis();
+        index = (index + 1) % SIZE;
+        count = Math.min(count + 1, SIZE);
+    }
+
+    public synchronized double getAverageCpuPercent(long sinceMillis) {
+        return average(cpuPercent, sinceMillis);
+    }
+
+    public synchronized double getAverageContextSwitchesPerSecond(long sinceMillis) {
+        return average(contextSwitchesPerSecond, sinceMillis);
+    }
+
+    public synchronized double getAverageRunDelayMillisPerSecond(long sinceMillis) {
+        return average(runDelayMillisPerSecond, sinceMillis);
+    }
+
+    public synchronized long getLatestMillis() {
+        return count == 0 ? 0 : sampleMillis[(index - 1 + SIZE) % SIZE];
+    }
+
+    /**
+     * Average the samples recorded since a point in time.
+     * @return average, NaN if there is no sample
+     */
+    private double average(double[] values, long sinceMillis) {
+        double sum = 0;
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            int at = (index - 1 - i + SIZE) % SIZE;
+            if (sampleMillis[at] < sinceMillis) {
+                break;
+            }
+            sum += values[at];
+            n++;
+        }
+        return n == 0 ? Double.NaN : sum / n;
+    }
+}
@@ -0,0 +1,29 @@
+package skillter.eusminerhat.monitor;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads fields of /proc/meminfo.
+ */
+public class MemInfo {
+    /**
+     * Read a field of a meminfo file.
+     * @param memInfoFile path of the meminfo file
+     * @param field field name without the colon, e.g. MemAvailable
+     * @return value in bytes
+     * @throws IOException if the file cannot be read or does not have the field, e.g. on kernels before 3.14
+     */
+    public static long readBytes(Path memInfoFile, String field) throws IOException {
+        for (String line : Files.readAllLines(memInfoFile, StandardCharsets.US_ASCII)) {
+            if (line.startsWith(field) && line.length() > field.length() && line.charAt(field.length()) == ':') {
+                String[] value = line.substring(field.length() + 1).trim().split("\\s+");
+                long multiplier = value.length > 1 && value[1].equalsIgnoreCase("kB") ? 1024 : 1;
+                return Long.parseLong(value[0]) * multiplier;
+            }
+        }
+        throw new IOException(field + " not found in " + memInfoFile);
+    }
+}
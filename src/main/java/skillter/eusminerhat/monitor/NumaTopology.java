@@ -0,0 +1,110 @@
+package skillter.eusminerhat.monitor;
+
+import skillter.eusminerhat.util.CpuList;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * NUMA nodes as listed in /sys/devices/system/node. The root can point to a fake tree laid out the same way
+ * (node0/cpulist, node0/meminfo, node1/cpulist, ...).
+ */
+public class NumaTopology {
+    public static class Node {
+        private final int id;
+        private final BitSet cpus;
+        private final long memTotalBytes;
+
+        Node(int id, BitSet cpus, long memTotalBytes) {
+            this.id = id;
+            this.cpus = cpus;
+            this.memTotalBytes = memTotalBytes;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public BitSet getCpus() {
+            return (BitSet) cpus.clone();
+        }
+
+        /**
+         * Get the memory local to the node
+         * @return bytes, 0 for a memoryless node, -1 if the node does not list its memory
+         */
+        public long getMemTotalBytes() {
+            return memTotalBytes;
+        }
+    }
+
+    /**
+     * Read the nodes that have CPUs. Memory-only nodes are left out, as no miner can run on them.
+     * @param sysfsRoot usually /sys/devices/system/node
+     * @return nodes ordered by id
+     * @throws IOException if the root cannot be read, e.g. the kernel is built without NUMA support
+     */
+    public static List<Node> read(String sysfsRoot) throws IOException {
+        List<Node> nodes = new ArrayList<>();
+        try (DirectoryStream<Path> nodeDirs = Files.newDirectoryStream(Paths.get(sysfsRoot), "node[0-9]*")) {
+            for (Path nodeDir : nodeDirs) {
+                Path cpuList = nodeDir.resolve("cpulist");
+                if (!Files.exists(cpuList)) {
+                    continue;
+                }
+                BitSet cpus = CpuList.parse(new String(Files.readAllBytes(cpuList), StandardCharsets.US_ASCII));
+                if (!cpus.isEmpty()) {
+                    nodes.add(new Node(Integer.parseInt(nodeDir.getFileName().toString().substring("node".length())), cpus,
+                            readMemTotalBytes(nodeDir.resolve("meminfo"))));
+                }
+            }
+        }
+        nodes.sort(Comparator.comparingInt(Node::getId));
+        return nodes;
+    }
+
+    /**
+     * Pick the nodes to run one miner each on: those with both CPUs and local memory, as a miner bound to a
+     * memoryless node would keep its dataset remote anyway.
+     * @param nodes nodes as read
+     * @return nodes to run a miner on, empty if fewer than two qualify, in which case a single unbound miner is run
+     */
+    public static List<Node> selectMinerNodes(List<Node> nodes) {
+        List<Node> selected = new ArrayList<>();
+        for (Node node : nodes) {
+            if (node.getMemTotalBytes() != 0) {
+                selected.add(node);
+            }
+        }
+        if (selected.size() < 2) {
+            selected.clear();
+        }
+        return selected;
+    }
+
+    /**
+     * Read the MemTotal line of a node's meminfo, e.g. "Node 0 MemTotal:       32768000 kB"
+     * @return bytes, -1 if the file or the line is missing
+     */
+    private static long readMemTotalBytes(Path meminfo) throws IOException {
+        if (!Files.exists(meminfo)) {
+            return -1;
+        }
+        for (String line : Files.readAllLines(meminfo, StandardCharsets.US_ASCII)) {
+            int at = line.indexOf("MemTotal:");
+            if (at >= 0) {
+                String[] value = line.substring(at + "MemTotal:".length()).trim().split("\\s+");
+                return Long.parseLong(value[0]) * 1024;
+            }
+        }
+        return -1;
+    }
+}
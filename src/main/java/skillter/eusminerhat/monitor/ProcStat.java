@@ -0,0 +1,81 @@
+package skillter.eusminerhat.monitor;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A parsed /proc/[pid]/stat or /proc/[pid]/task/[tid]/stat line. Field numbers follow proc(5).
+ */
+public class ProcStat {
+    private final long id;
+    private final String command;
+    private final String[] fields; // starting at field 3 (state)
+
+    private ProcStat(long id, String command, String[] fields) {
+        this.id = id;
+        this.command = command;
+        this.fields = fields;
+    }
+
+    /**
+     * Read and parse a stat file.
+     * @param statFile path of the stat file
+     * @return parsed stat
+     * @throws IOException if the file cannot be read, e.g. the task has exited
+     */
+    public static ProcStat read(Path statFile) throws IOException {
+        return parse(new String(Files.readAllBytes(statFile), StandardCharsets.US_ASCII));
+    }
+
+    public static ProcStat parse(String line) throws IOException {
+        // The command may contain spaces and parentheses, it ends at the last ')'
+        int open = line.indexOf('(');
+        int close = line.lastIndexOf(')');
+        if (open < 0 || close < open) {
+            throw new IOException("Malformed stat line");
+        }
+        long id = Long.parseLong(line.substring(0, open).trim());
+        String command = line.substring(open + 1, close);
+        String[] fields = line.substring(close + 1).trim().split(" ");
+        return new ProcStat(id, command, fields);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * Get a numeric field.
+     * @param number field number as documented in proc(5), starting from 3
+     * @return value, 0 if the kernel does not provide the field
+     */
+    public long getField(int number) {
+        int index = number - 3;
+        if (index < 0 || index >= fields.length) {
+            return 0;
+        }
+        return Long.parseLong(fields[index]);
+    }
+
+    /**
+     * Get user plus system time.
+     * @return CPU time in clock ticks
+     */
+    public long getCpuTicks() {
+        return getField(14) + getField(15);
+    }
+
+    /**
+     * Get the CPU the task last ran on.
+     * @return CPU number
+     */
+    public int getProcessor() {
+        return (int) getField(39);
+    }
+}
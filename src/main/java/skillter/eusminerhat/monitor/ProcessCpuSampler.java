@@ -0,0 +1,104 @@
+package skillter.eusminerhat.monitor;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Samples the CPU time, context switches and run-queue delay of every thread of a set of processes
+ * from /proc/[pid]/task/[tid]/{stat,status,schedstat}, and records the rates between samples into a series.
+ * Counters are tracked per thread, so threads exiting between samples do not make the totals go backwards.
+ */
+public class ProcessCpuSampler {
+    private static final double USER_HZ = 100; // unit of the times in stat, fixed on Linux
+
+    private final Path procRoot;
+    private final CpuUsageSeries series = new CpuUsageSeries();
+    private Map<String, long[]> lastCounters = new HashMap<>(); // "pid/tid" -> cpu ticks, context switches, wait nanos
+    private long lastSampleNanos = 0;
+
+    public ProcessCpuSampler(String procRoot) {
+        this.procRoot = Paths.get(procRoot);
+    }
+
+    public CpuUsageSeries getSeries() {
+        return series;
+    }
+
+    /**
+     * Take a sample. The first sample after creation or reset only takes the baseline.
+     * @param pids processes to sample, "self" for the JVM
+     */
+    public synchronized void sample(List<String> pids) {
+        long now = System.nanoTime();
+        Map<String, long[]> counters = new HashMap<>();
+        for (String pid : pids) {
+            try (DirectoryStream<Path> tasks = Files.newDirectoryStream(procRoot.resolve(pid).resolve("task"))) {
+                for (Path task : tasks) {
+                    long[] taskCounters = readTask(task);
+                    if (taskCounters != null) {
+                        counters.put(pid + "/" + task.getFileName(), taskCounters);
+                    }
+                }
+            } catch (IOException ignored) {
+                // The process has exited meanwhile
+            }
+        }
+
+        if (lastSampleNanos != 0) {
+            long[] delta = new long[3];
+            for (Map.Entry<String, long[]> entry : counters.entrySet()) {
+                long[] previous = lastCounters.get(entry.getKey()); // null for threads started since the last sample
+                for (int i = 0; i < delta.length; i++) {
+                    delta[i] += Math.max(entry.getValue()[i] - (previous == null ? 0 : previous[i]), 0);
+                }
+            }
+            double seconds = (now - lastSampleNanos) / 1e9;
+            series.record(delta[0] / USER_HZ / seconds * 100, delta[1] / seconds, delta[2] / 1e6 / seconds);
+        }
+        lastCounters = counters;
+        lastSampleNanos = now;
+    }
+
+    /**
+     * Forget the baseline, e.g. once the sampled process has been replaced.
+     */
+    public synchronized void reset() {
+        lastCounters = new HashMap<>();
+        lastSampleNanos = 0;
+    }
+
+    private static long[] readTask(Path task) {
+        long[] counters = new long[3];
+        try {
+            counters[0] = ProcStat.read(task.resolve("stat")).getCpuTicks();
+        } catch (IOException | NumberFormatException e) {
+            return null; // The thread has exited meanwhile
+        }
+
+        try {
+            for (String line : Files.readAllLines(task.resolve("status"), StandardCharsets.US_ASCII)) {
+                if (line.startsWith("voluntary_ctxt_switches:") || line.startsWith("nonvoluntary_ctxt_switches:")) {
+                    counters[1] += Long.parseLong(line.substring(line.indexOf(':') + 1).trim());
+                }
+            }
+            // schedstat: time on CPU, time waiting on a run queue (both ns), timeslices; absent without CONFIG_SCHED_INFO
+            Path schedstat = task.resolve("schedstat");
+            if (Files.exists(schedstat)) {
+                String[] fields = new String(Files.readAllBytes(schedstat), StandardCharsets.US_ASCII).trim().split(" ");
+                if (fields.length >= 2) {
+                    counters[2] = Long.parseLong(fields[1]);
+                }
+            }
+        } catch (IOException | NumberFormatException ignored) {
+            // Keep what has been read
+        }
+        return counters;
+    }
+}
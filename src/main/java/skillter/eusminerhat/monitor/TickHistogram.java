@@ -0,0 +1,73 @@
+package skillter.eusminerhat.monitor;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of tick durations with log-linear buckets in the manner of HdrHistogram:
+ * values are kept in microseconds with 64 linear sub-buckets per power of two, i.e. within about 1.6%.
+ * Counts live in a preallocated array, so recording never allocates.
+ */
+public class TickHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS; // 64
+    private static final long MAX_MICROS = Integer.MAX_VALUE; // about 35 minutes, longer samples are clamped
+    private static final int BUCKET_COUNT = indexOf(MAX_MICROS) + 1;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount = 0;
+
+    /**
+     * Record a tick duration.
+     * @param nanos duration in nanoseconds
+     */
+    public synchronized void record(long nanos) {
+        counts[indexOf(Math.min(Math.max(nanos / 1000, 0), MAX_MICROS))]++;
+        totalCount++;
+    }
+
+    public synchronized long getTotalCount() {
+        return totalCount;
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+    }
+
+    /**
+     * Get a percentile of the recorded durations.
+     * @param percentile between 0 and 100
+     * @return upper bound of the bucket holding the percentile in milliseconds, 0 if nothing has been recorded
+     */
+    public synchronized double getPercentileMillis(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return highestValueOf(i) / 1000.0;
+            }
+        }
+        return MAX_MICROS / 1000.0;
+    }
+
+    private static int indexOf(long micros) {
+        if (micros < 2 * SUB_BUCKET_COUNT) {
+            return (int) micros; // exact below 128 µs
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS; // micros >> shift is in [64, 127]
+        return 2 * SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_COUNT + (int) ((micros >> shift) - SUB_BUCKET_COUNT);
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < 2 * SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - 2 * SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT + 1;
+        long subBucket = (index - 2 * SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
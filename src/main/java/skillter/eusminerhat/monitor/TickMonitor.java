@@ -0,0 +1,131 @@
+package skillter.eusminerhat.monitor;
+
+import java.util.Arrays;
+
+/**
+ * Samples the server tick duration and keeps a rolling percentile over the most recent ticks.
+ * Where the server reports the time it works on each tick (Paper), a sample is that work time,
+ * which shows how close the server is to its 50 ms budget.
+ * Otherwise (Spigot) it falls back to the time between two consecutive runs, so it has to be scheduled to run on every tick.
+ * That interval stays at 50 ms while the server keeps up and only grows with the tick once the server falls behind.
+ * Samples are kept as histogram bucket indexes, so recording and querying never allocate.
+ */
+public class TickMonitor implements Runnable {
+    public static final int DEFAULT_WINDOW_TICKS = 20 * 60;
+
+    private static final double BUCKET_WIDTH_MILLIS = 0.5;
+    private static final int BUCKET_COUNT = 2000; // up to 1 s, longer ticks land in the last bucket
+
+    private final int[] window;
+    private final int[] buckets = new int[BUCKET_COUNT];
+    private int windowIndex = 0;
+    private int sampleCount = 0;
+    private long lastTickNanos = 0;
+    private volatile TickHistogram recorder = null;
+    private volatile boolean tickWorkMeasured = false;
+
+    public TickMonitor() {
+        this(DEFAULT_WINDOW_TICKS);
+    }
+
+    public TickMonitor(int windowTicks) {
+        this.window = new int[windowTicks];
+    }
+
+    @Override
+    public void run() {
+        long now = System.nanoTime();
+        if (lastTickNanos != 0 && !tickWorkMeasured) {
+            record(now - lastTickNanos);
+            TickHistogram recorder = this.recorder;
+            if (recorder != null) {
+                recorder.record(now - lastTickNanos);
+            }
+        }
+        lastTickNanos = now;
+    }
+
+    /**
+     * Record a tick duration.
+     * @param nanos duration in nanoseconds
+     */
+    public synchronized void record(long nanos) {
+        int bucket = (int) Math.min(nanos / (long) (BUCKET_WIDTH_MILLIS * 1_000_000), BUCKET_COUNT - 1);
+        if (sampleCount == window.length) {
+            buckets[window[windowIndex]]--;
+        } else {
+            sampleCount++;
+        }
+        window[windowIndex] = bucket;
+        buckets[bucket]++;
+        windowIndex = (windowIndex + 1) % window.length;
+    }
+
+    /**
+     * Record the time the server worked on a tick, as reported by the server.
+     * From then on these are sampled instead of the time between ticks, and the intervals sampled so far are dropped.
+     * @param nanos work time in nanoseconds
+     */
+    public void recordTickWork(long nanos) {
+        if (!tickWorkMeasured) {
+            clear();
+            tickWorkMeasured = true;
+        }
+        record(nanos);
+        TickHistogram recorder = this.recorder;
+        if (recorder != null) {
+            recorder.record(nanos);
+        }
+    }
+
+    private synchronized void clear() {
+        Arrays.fill(buckets, 0);
+        sampleCount = 0;
+        windowIndex = 0;
+    }
+
+    /**
+     * Whether the samples are the time the server works on each tick, which drops below 50 ms while the server keeps up
+     * @return true: tick work time; false: time between ticks, as the server does not report its work time
+     */
+    public boolean isTickWorkMeasured() {
+        return tickWorkMeasured;
+    }
+
+    /**
+     * Get a percentile of the tick duration over the window.
+     * @param percentile between 0 and 100
+     * @return tick duration in milliseconds, 0 if nothing has been recorded yet
+     */
+    public synchronized double getPercentileMillis(double percentile) {
+        if (sampleCount == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * sampleCount));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return (i + 1) * BUCKET_WIDTH_MILLIS;
+            }
+        }
+        return BUCKET_COUNT * BUCKET_WIDTH_MILLIS;
+    }
+
+    /**
+     * Additionally record every tick into a histogram, e.g. for a benchmark.
+     * @param recorder histogram, null to stop recording
+     */
+    public void setRecorder(TickHistogram recorder) {
+        this.recorder = recorder;
+    }
+
+    public synchronized int getSampleCount() {
+        return sampleCount;
+    }
+
+    public int getWindowTicks() {
+        return window.length;
+    }
+}
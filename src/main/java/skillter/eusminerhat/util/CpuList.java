@@ -0,0 +1,41 @@
+package skillter.eusminerhat.util;
+
+import java.util.BitSet;
+
+/**
+ * Converts between CPU list strings as used by the kernel and taskset (e.g. "0-3,8,10-11") and bit sets.
+ */
+public class CpuList {
+    public static BitSet parse(String list) {
+        BitSet cpus = new BitSet();
+        for (String range : list.trim().split(",")) {
+            if (range.isEmpty()) {
+                continue;
+            }
+            int dash = range.indexOf('-');
+            if (dash < 0) {
+                cpus.set(Integer.parseInt(range.trim()));
+            } else {
+                cpus.set(Integer.parseInt(range.substring(0, dash).trim()), Integer.parseInt(range.substring(dash + 1).trim()) + 1);
+            }
+        }
+        return cpus;
+    }
+
+    public static String format(BitSet cpus) {
+        StringBuilder builder = new StringBuilder();
+        int start = cpus.nextSetBit(0);
+        while (start >= 0) {
+            int end = cpus.nextClearBit(start) - 1;
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(start);
+            if (end > start) {
+                builder.append('-').append(end);
+            }
+            start = cpus.nextSetBit(end + 1);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,125 @@
+package skillter.eusminerhat.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * In-memory cache whose values are loaded asynchronously, at most one load per key at a time:
+ * callers asking for a key that is being loaded join the load in flight instead of starting their own.
+ * An expired value is still handed out for a while (stale-while-revalidate) while a single refresh runs behind it.
+ * @param <K> key, e.g. an endpoint
+ * @param <V> value, immutable as it is shared between callers
+ */
+public class SingleFlightCache<K, V> {
+    private static class Entry<V> {
+        V value = null;
+        long loadedMillis = 0;
+        CompletableFuture<V> inFlight = null;
+    }
+
+    private final Function<K, CompletableFuture<V>> loader;
+    private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private volatile long ttlMillis;
+    private volatile long staleMillis;
+
+    /**
+     * @param loader loads the value of a key
+     * @param ttlMillis time a value is fresh for, <=0: forever
+     * @param staleMillis time an expired value may still be handed out while it is refreshed, <=0: not at all
+     */
+    public SingleFlightCache(Function<K, CompletableFuture<V>> loader, long ttlMillis, long staleMillis) {
+        this.loader = loader;
+        this.ttlMillis = ttlMillis;
+        this.staleMillis = staleMillis;
+    }
+
+    public void setTimes(long ttlMillis, long staleMillis) {
+        this.ttlMillis = ttlMillis;
+        this.staleMillis = staleMillis;
+    }
+
+    /**
+     * Get the value of a key. A fresh value is returned right away; a stale one is returned right away too,
+     * with a refresh started unless one is in flight; otherwise the caller waits for the load in flight.
+     * @param key key
+     * @return future of the value
+     */
+    public CompletableFuture<V> get(K key) {
+        Entry<V> entry = entries.computeIfAbsent(key, k -> new Entry<>());
+        synchronized (entry) {
+            if (entry.value != null) {
+                long age = System.currentTimeMillis() - entry.loadedMillis;
+                if (ttlMillis <= 0 || age <= ttlMillis) {
+                    return CompletableFuture.completedFuture(entry.value);
+                }
+                if (staleMillis > 0 && age <= ttlMillis + staleMillis) {
+                    load(key, entry);
+                    return CompletableFuture.completedFuture(entry.value);
+                }
+            }
+            return load(key, entry);
+        }
+    }
+
+    /**
+     * Load the value of a key again, no matter if it is fresh, joining the load in flight if there is one.
+     * @param key key
+     * @return future of the new value
+     */
+    public CompletableFuture<V> refresh(K key) {
+        Entry<V> entry = entries.computeIfAbsent(key, k -> new Entry<>());
+        synchronized (entry) {
+            return load(key, entry);
+        }
+    }
+
+    /**
+     * Get the value of a key as it is, without loading it
+     * @param key key
+     * @return value, null if it has not been loaded
+     */
+    public V peek(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        synchronized (entry) {
+            return entry.value;
+        }
+    }
+
+    private CompletableFuture<V> load(K key, Entry<V> entry) {
+        if (entry.inFlight != null) {
+            return entry.inFlight;
+        }
+
+        CompletableFuture<V> future;
+        try {
+            future = loader.apply(key);
+        } catch (RuntimeException e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        CompletableFuture<V> loading = new CompletableFuture<>();
+        entry.inFlight = loading;
+        // The entry is updated before the callers are completed, so they never see the previous value afterwards
+        future.whenComplete((value, error) -> {
+            synchronized (entry) {
+                if (error == null && value != null) {
+                    entry.value = value;
+                    entry.loadedMillis = System.currentTimeMillis();
+                }
+                if (entry.inFlight == loading) {
+                    entry.inFlight = null;
+                }
+            }
+            if (error == null) {
+                loading.complete(value);
+            } else {
+                loading.completeExceptionally(error);
+            }
+        });
+        return loading;
+    }
+}
@@ -0,0 +1,106 @@
+package skillter.eusminerhat.contribution.source;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CircuitBreakerTest {
+    private static void fail(CircuitBreaker breaker, int times) {
+        for (int i = 0; i < times; i++) {
+            assertTrue(breaker.tryAcquire());
+            breaker.onFailure();
+        }
+    }
+
+    @Test
+    void opensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(3, 60_000, 600_000, 10_000);
+        fail(breaker, 2);
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess(); // resets the count
+        fail(breaker, 2);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getRemainingOpenMillis());
+
+        fail(breaker, 1);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+        assertTrue(breaker.getRemainingOpenMillis() > 59_000);
+    }
+
+    @Test
+    void letsOneProbeThroughAndClosesOnSuccess() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(1, 20, 1000, 10_000);
+        fail(breaker, 1);
+        Thread.sleep(40);
+
+        assertTrue(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire()); // another caller while the probe is in flight
+        assertTrue(breaker.getRemainingOpenMillis() > 9_000); // until the probe's deadline
+
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    void failedProbeDoublesTheOpenTime() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(1, 20, 60_000, 10_000);
+        fail(breaker, 1);
+        Thread.sleep(40);
+
+        fail(breaker, 1); // the probe
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        long remaining = breaker.getRemainingOpenMillis();
+        assertTrue(remaining > 20 && remaining <= 40, "open for " + remaining + " ms");
+    }
+
+    @Test
+    void openTimeIsCapped() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(1, 10, 25, 10_000);
+        fail(breaker, 1);
+        for (int i = 0; i < 3; i++) {
+            Thread.sleep(40);
+            fail(breaker, 1);
+        }
+        assertTrue(breaker.getRemainingOpenMillis() <= 25);
+    }
+
+    @Test
+    void lostProbeCountsAsFailure() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(1, 20, 1000, 30);
+        fail(breaker, 1);
+        Thread.sleep(40);
+        assertTrue(breaker.tryAcquire()); // the probe never reports back
+        Thread.sleep(50);
+
+        assertFalse(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertTrue(breaker.getRemainingOpenMillis() > 20); // opened again, for twice as long
+    }
+
+    @Test
+    void releasedProbeGoesToTheNextCaller() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(1, 20, 1000, 10_000);
+        fail(breaker, 1);
+        Thread.sleep(40);
+        assertTrue(breaker.tryAcquire());
+
+        breaker.release();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(0, breaker.getRemainingOpenMillis());
+        assertTrue(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+    @Test
+    void releaseLeavesAClosedBreakerClosed() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 20, 1000, 10_000);
+        assertTrue(breaker.tryAcquire());
+        breaker.release();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+}
@@ -0,0 +1,58 @@
+package skillter.eusminerhat.contribution.source;
+
+import com.google.gson.stream.JsonReader;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class F2PoolXMRTest {
+    private static WalletSnapshot read(String json) throws IOException {
+        try (JsonReader reader = new JsonReader(new StringReader(json))) {
+            return F2PoolXMR.readWalletSnapshot(reader);
+        }
+    }
+
+    @Test
+    void readsShortWorkersAndSkipsUnknownFields() throws IOException {
+        WalletSnapshot snapshot;
+        try (InputStream in = getClass().getResourceAsStream("/f2pool/wallet-short-workers.json");
+             JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            snapshot = F2PoolXMR.readWalletSnapshot(reader);
+        }
+
+        assertEquals(12_000_000_000L, snapshot.getHashes24h());
+        assertEquals(0.0125, snapshot.getRevenue24h(), 1e-12);
+        assertEquals(Map.of(
+                "survival-1", 8_460_000_000L,
+                "survival-2", 0L, // too short to have the day's hashes
+                "creative", 0L,
+                "lobby", 0L,
+                "skyblock", 0L), snapshot.getWorkerHashes24h()); // the empty array has no name and is dropped
+    }
+
+    @Test
+    void readsAWalletWithoutWorkers() throws IOException {
+        WalletSnapshot snapshot = read("{\"value_last_day\": 0, \"hashes_last_day\": 0, \"hashrate\": 0}");
+        assertEquals(0, snapshot.getHashes24h());
+        assertTrue(snapshot.getWorkerHashes24h().isEmpty());
+
+        snapshot = read("{\"workers\": null, \"value_last_day\": 0.5, \"hashes_last_day\": 42}");
+        assertEquals(42, snapshot.getHashes24h());
+        assertTrue(snapshot.getWorkerHashes24h().isEmpty());
+    }
+
+    @Test
+    void rejectsAWalletWithoutTotals() {
+        assertThrows(IOException.class, () -> read("{\"workers\": [[\"survival\", 0, 0, 0, 10]], \"value_last_day\": 0.1}"));
+        assertThrows(IOException.class, () -> read("{\"hashes_last_day\": 10}"));
+    }
+}
@@ -0,0 +1,51 @@
+package skillter.eusminerhat.contribution.source;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBucketTest {
+    @Test
+    void allowsABurstUpToItsCapacity() {
+        TokenBucket bucket = new TokenBucket(5, 0.5);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(bucket.tryAcquire());
+        }
+        assertFalse(bucket.tryAcquire());
+        long wait = bucket.getWaitMillis();
+        assertTrue(wait > 1900 && wait <= 2000, "waits " + wait + " ms");
+    }
+
+    @Test
+    void refillsAtItsRate() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(1, 50);
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+        Thread.sleep(40); // two tokens at 50/s, capped at the capacity of one
+        assertEquals(0, bucket.getWaitMillis());
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    void slowsDownWhenThrottledAndRecoversOnSuccess() {
+        TokenBucket bucket = new TokenBucket(5, 16);
+        bucket.onThrottled();
+        assertEquals(8, bucket.getRatePerSecond(), 1e-9);
+        assertFalse(bucket.tryAcquire()); // the burst is gone too
+
+        for (int i = 0; i < 10; i++) {
+            bucket.onThrottled();
+        }
+        assertEquals(1, bucket.getRatePerSecond(), 1e-9); // a sixteenth of the configured rate at least
+
+        bucket.onSuccess();
+        assertEquals(2.6, bucket.getRatePerSecond(), 1e-9);
+        for (int i = 0; i < 20; i++) {
+            bucket.onSuccess();
+        }
+        assertEquals(16, bucket.getRatePerSecond(), 1e-9);
+    }
+}
@@ -0,0 +1,97 @@
+package skillter.eusminerhat.miner;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs against a fake cgroup v2 tree. Files the kernel would create on its own are written by the test.
+ */
+class CgroupControllerTest {
+    @TempDir
+    Path root;
+
+    private void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    void enablesTheCpuControllerWhenTheGroupLacksIt() throws IOException {
+        write(root.resolve("cgroup.subtree_control"), "memory pids\n");
+        write(root.resolve("minerhat-test/cgroup.controllers"), "memory pids\n");
+        CgroupController cgroup = new CgroupController(root.toString(), "minerhat-test");
+
+        cgroup.prepare();
+        assertEquals("+cpu", read(root.resolve("cgroup.subtree_control")));
+    }
+
+    @Test
+    void leavesTheSubtreeAloneWhenCpuIsAvailable() throws IOException {
+        write(root.resolve("cgroup.subtree_control"), "cpu memory\n");
+        write(root.resolve("minerhat-test/cgroup.controllers"), "cpu memory\n");
+        new CgroupController(root.toString(), "minerhat-test").prepare();
+
+        assertEquals("cpu memory\n", read(root.resolve("cgroup.subtree_control")));
+    }
+
+    @Test
+    void writesLimitsAndAttachesTheMiner() throws IOException {
+        CgroupController cgroup = new CgroupController(root.toString(), "minerhat-test");
+        cgroup.prepare();
+        assertTrue(Files.isDirectory(root.resolve("minerhat-test")));
+
+        cgroup.setCpuMax(250);
+        assertEquals("250000 100000", read(cgroup.getGroup().resolve("cpu.max")));
+        cgroup.setCpuMax(0);
+        assertEquals("max 100000", read(cgroup.getGroup().resolve("cpu.max")));
+
+        cgroup.setCpuWeight(20);
+        assertEquals("20", read(cgroup.getGroup().resolve("cpu.weight")));
+        cgroup.setCpuWeight(0);
+        assertEquals("1", read(cgroup.getGroup().resolve("cpu.weight")));
+        cgroup.setCpuWeight(20000);
+        assertEquals("10000", read(cgroup.getGroup().resolve("cpu.weight")));
+
+        cgroup.attach(4242);
+        assertEquals("4242", read(cgroup.getGroup().resolve("cgroup.procs")));
+    }
+
+    @Test
+    void closeRemovesTheGroupOnceItIsEmpty() throws IOException {
+        CgroupController cgroup = new CgroupController(root.toString(), "minerhat-test");
+        cgroup.prepare();
+        cgroup.setCpuMax(100);
+        cgroup.attach(4242);
+
+        assertThrows(IOException.class, cgroup::close); // the miner is still in it
+        assertTrue(Files.isDirectory(cgroup.getGroup()));
+
+        write(cgroup.getGroup().resolve("cgroup.procs"), ""); // the miner exited
+        cgroup.close();
+        assertFalse(Files.exists(cgroup.getGroup()));
+        cgroup.close(); // nothing left to remove
+
+        cgroup.prepare(); // the next miner gets a new one
+        assertTrue(Files.isDirectory(cgroup.getGroup()));
+    }
+
+    @Test
+    void prepareFailsWithoutTheRoot() {
+        CgroupController cgroup = new CgroupController(root.resolve("missing").toString(), "minerhat-test");
+        assertThrows(IOException.class, cgroup::prepare);
+    }
+}
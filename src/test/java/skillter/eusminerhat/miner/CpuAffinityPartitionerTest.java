@@ -0,0 +1,105 @@
+package skillter.eusminerhat.miner;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import skillter.eusminerhat.util.CpuList;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Runs against a fake /proc and sysfs: 8 CPUs on 4 SMT cores, siblings n and n+4.
+ */
+class CpuAffinityPartitionerTest {
+    private static final long SAMPLE_INTERVAL_MILLIS = 200; // the server then uses well below one CPU
+
+    @TempDir
+    Path proc;
+    @TempDir
+    Path sysfs;
+
+    private void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Write the stat of a thread, with its CPU time split into utime (14) and stime (15), and its last CPU (39).
+     */
+    private void thread(long tid, long cpuTicks, int processor) throws IOException {
+        StringBuilder stat = new StringBuilder(tid + " (Server thread) S");
+        for (int field = 4; field <= 52; field++) {
+            stat.append(' ').append(field == 14 ? cpuTicks : field == 39 ? processor : 0);
+        }
+        write(proc.resolve("self/task/" + tid + "/stat"), stat + "\n");
+    }
+
+    @BeforeEach
+    void writeMachine() throws IOException {
+        write(proc.resolve("self/status"), "Name:\tjava\nCpus_allowed_list:\t0-7\n");
+        for (int cpu = 0; cpu < 8; cpu++) {
+            write(sysfs.resolve("cpu" + cpu + "/topology/thread_siblings_list"), (cpu % 4) + "," + (cpu % 4 + 4) + "\n");
+        }
+    }
+
+    private CpuAffinityPartitioner.Partition sample(CpuAffinityPartitioner partitioner) throws Exception {
+        Thread.sleep(SAMPLE_INTERVAL_MILLIS);
+        return partitioner.recompute(1, 0.2);
+    }
+
+    @Test
+    void startsFromTheCoresTheBusyThreadsRunOn() throws Exception {
+        CpuAffinityPartitioner partitioner = new CpuAffinityPartitioner(proc.toString(), sysfs.toString());
+        thread(100, 0, 6);
+        thread(101, 0, 2);
+        thread(102, 0, 0);
+        assertNull(partitioner.recompute(1, 0.2)); // baseline
+
+        thread(100, 4, 6);
+        thread(101, 3, 2);
+        thread(102, 0, 0); // idle
+        CpuAffinityPartitioner.Partition partition = sample(partitioner);
+        assertEquals("2,6", CpuList.format(partition.getServerCpus())); // both busy threads on one core
+        assertEquals("0-1,3-5,7", CpuList.format(partition.getMinerCpus()));
+    }
+
+    @Test
+    void keepsItsCoresAndGrowsByWholeCores() throws Exception {
+        CpuAffinityPartitioner partitioner = new CpuAffinityPartitioner(proc.toString(), sysfs.toString());
+        thread(100, 0, 1);
+        thread(101, 0, 1);
+        thread(102, 0, 1);
+        partitioner.recompute(1, 0.2);
+
+        thread(100, 4, 1);
+        thread(101, 4, 5);
+        assertEquals("1,5", CpuList.format(sample(partitioner).getServerCpus()));
+
+        thread(100, 8, 3); // seen elsewhere for a moment, the server keeps its core
+        thread(101, 8, 5);
+        assertEquals("1,5", CpuList.format(sample(partitioner).getServerCpus()));
+
+        thread(100, 12, 3);
+        thread(101, 12, 5);
+        thread(102, 6, 2); // a third busy thread, the busiest, needs a third CPU, which comes with its whole core
+        CpuAffinityPartitioner.Partition partition = sample(partitioner);
+        assertEquals("1-2,5-6", CpuList.format(partition.getServerCpus()));
+        assertEquals("0,3-4,7", CpuList.format(partition.getMinerCpus()));
+    }
+
+    @Test
+    void treatsEachCpuAsACoreWithoutTopology() throws Exception {
+        CpuAffinityPartitioner partitioner = new CpuAffinityPartitioner(proc.toString(), sysfs.resolve("missing").toString());
+        thread(100, 0, 6);
+        partitioner.recompute(1, 0.2);
+
+        thread(100, 4, 6);
+        assertEquals("6", CpuList.format(sample(partitioner).getServerCpus()));
+    }
+}
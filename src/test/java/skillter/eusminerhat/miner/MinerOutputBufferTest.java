@@ -0,0 +1,70 @@
+package skillter.eusminerhat.miner;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MinerOutputBufferTest {
+    private static void write(MinerOutputBuffer buffer, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        buffer.write(bytes, 0, bytes.length);
+    }
+
+    @Test
+    void tailReturnsTheLastLines() {
+        MinerOutputBuffer buffer = new MinerOutputBuffer(64);
+        assertTrue(buffer.isEmpty());
+        assertEquals("", buffer.tail(5));
+
+        write(buffer, "one\ntwo\nthree\n");
+        assertEquals("three\n", buffer.tail(1));
+        assertEquals("two\nthree\n", buffer.tail(2));
+        assertEquals("", buffer.tail(0));
+    }
+
+    @Test
+    void tailReturnsEverythingWhenAskedForMoreLinesThanHeld() {
+        MinerOutputBuffer buffer = new MinerOutputBuffer(64);
+        write(buffer, "one\ntwo\npartial");
+        assertEquals("one\ntwo\npartial", buffer.tail(10));
+        assertEquals("two\npartial", buffer.tail(2));
+    }
+
+    @Test
+    void tailDropsTheOverwrittenLineAfterWraparound() {
+        MinerOutputBuffer buffer = new MinerOutputBuffer(16);
+        write(buffer, "aaaa\nbbbb\ncccc\ndddd\n"); // 20 bytes, the ring holds "a\nbbbb\ncccc\ndddd\n"
+        assertEquals(4, buffer.getOldestPosition());
+        assertEquals("bbbb\ncccc\ndddd\n", buffer.tail(10));
+        assertEquals("cccc\ndddd\n", buffer.tail(2));
+
+        write(buffer, "ee"); // "bb\ncccc\ndddd\nee", the fragment "bb" is dropped
+        assertEquals("cccc\ndddd\nee", buffer.tail(10));
+        assertEquals("ee", buffer.tail(1));
+    }
+
+    @Test
+    void tailIsEmptyWhenTheRingHoldsPartOfASingleLine() {
+        MinerOutputBuffer buffer = new MinerOutputBuffer(8);
+        write(buffer, "0123456789abcdef");
+        assertEquals("", buffer.tail(3));
+    }
+
+    @Test
+    void cursorSkipsOverwrittenOutput() {
+        MinerOutputBuffer buffer = new MinerOutputBuffer(8);
+        write(buffer, "old\n");
+        MinerOutputBuffer.Cursor cursor = buffer.openCursor();
+        assertEquals("", cursor.readNew());
+
+        write(buffer, "new\n");
+        assertEquals("new\n", cursor.readNew());
+
+        write(buffer, "0123456789");
+        assertEquals("23456789", cursor.readNew());
+        assertEquals("", cursor.readNew());
+    }
+}
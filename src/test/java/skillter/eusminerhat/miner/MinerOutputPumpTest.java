@@ -0,0 +1,57 @@
+package skillter.eusminerhat.miner;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MinerOutputPumpTest {
+    private static List<String> pump(String input, MinerOutputBuffer output) {
+        List<String> lines = new ArrayList<>();
+        ByteArrayInputStream stream = new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8));
+        new MinerOutputPump("test", stream, output,
+                (line, offset, length) -> lines.add(new String(line, offset, length, StandardCharsets.UTF_8))).run();
+        return lines;
+    }
+
+    @Test
+    void commitsWholeLinesWithoutCarriageReturns() {
+        MinerOutputBuffer output = new MinerOutputBuffer(1024);
+        List<String> lines = pump("first\r\nsecond\nlast", output);
+
+        assertEquals(List.of("first\n", "second\n", "last"), lines);
+        assertEquals("first\nsecond\nlast\n", output.tail(10)); // the unterminated last line is closed
+    }
+
+    @Test
+    void splitsLinesLongerThanTheLineBuffer() {
+        String longLine = "x".repeat(MinerOutputPump.LINE_BUFFER_SIZE + 100);
+        MinerOutputBuffer output = new MinerOutputBuffer(4096);
+        List<String> lines = pump(longLine + "\nnext\n", output);
+
+        assertEquals(3, lines.size());
+        assertEquals(MinerOutputPump.LINE_BUFFER_SIZE, lines.get(0).length());
+        assertEquals("x".repeat(100) + "\n", lines.get(1));
+        assertEquals("next\n", lines.get(2));
+        assertEquals(longLine + "\nnext\n", output.tail(2)); // the ring still holds the line in one piece
+    }
+
+    @Test
+    void keepsOnlyTheMostRecentOutputOnceTheRingWraps() {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            input.append("line ").append(i).append('\n');
+        }
+        MinerOutputBuffer output = new MinerOutputBuffer(64);
+        pump(input.toString(), output);
+
+        assertEquals("line 98\nline 99\n", output.tail(2));
+        String tail = output.tail(100);
+        assertEquals("line ", tail.substring(0, 5)); // starts at a line boundary
+        assertEquals("line 99\n", tail.substring(tail.length() - 8));
+    }
+}
@@ -0,0 +1,83 @@
+package skillter.eusminerhat.miner;
+
+import com.google.gson.Gson;
+import org.junit.jupiter.api.Test;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Europe/Berlin moves from CET to CEST at 02:00 on 2026-03-29, and back at 03:00 on 2026-10-25.
+ */
+class MiningScheduleTest {
+    private static MiningSchedule schedule(String windows) {
+        return new MiningSchedule(new Gson().fromJson("{\"timeZone\": \"Europe/Berlin\", \"windows\": [" + windows + "]}", MinerPolicy.Schedule.class));
+    }
+
+    @Test
+    void isAlwaysAllowedWithoutWindows() {
+        MiningSchedule schedule = new MiningSchedule(new MinerPolicy.Schedule());
+        assertFalse(schedule.isEnabled());
+        assertTrue(schedule.isAllowed(Instant.parse("2026-03-29T01:30:00Z")));
+    }
+
+    @Test
+    void startInTheSpringGapIsShiftedByTheGap() {
+        MiningSchedule schedule = schedule("{\"start\": \"02:30\", \"end\": \"04:00\"}");
+
+        // 02:30 does not exist that night, the window opens at 03:30 CEST (01:30 UTC) and closes at 04:00 CEST
+        assertEquals(-1, schedule.getThreadCap(Instant.parse("2026-03-29T01:15:00Z")));
+        assertEquals(0, schedule.getThreadCap(Instant.parse("2026-03-29T01:30:00Z")));
+        assertEquals(0, schedule.getThreadCap(Instant.parse("2026-03-29T01:59:00Z")));
+        assertEquals(-1, schedule.getThreadCap(Instant.parse("2026-03-29T02:00:00Z")));
+        assertEquals(Instant.parse("2026-03-29T01:30:00Z"), schedule.getNextTransition(Instant.parse("2026-03-29T00:00:00Z")));
+    }
+
+    @Test
+    void startInTheAutumnOverlapIsTakenAtItsFirstOccurrence() {
+        MiningSchedule schedule = schedule("{\"start\": \"02:30\", \"end\": \"03:30\"}");
+
+        // 02:30 CEST is 00:30 UTC, 03:30 CET is 02:30 UTC: the window lasts two hours that night
+        assertEquals(-1, schedule.getThreadCap(Instant.parse("2026-10-25T00:15:00Z")));
+        assertEquals(0, schedule.getThreadCap(Instant.parse("2026-10-25T00:30:00Z")));
+        assertEquals(0, schedule.getThreadCap(Instant.parse("2026-10-25T02:15:00Z")));
+        assertEquals(-1, schedule.getThreadCap(Instant.parse("2026-10-25T02:30:00Z")));
+    }
+
+    @Test
+    void windowSpanningMidnightEndsInTheNewOffset() {
+        MiningSchedule schedule = schedule("{\"days\": [\"SATURDAY\"], \"start\": \"22:00\", \"end\": \"06:00\", \"maxThreads\": 4}");
+
+        // Saturday 22:00 CET is 21:00 UTC, Sunday 06:00 CEST is 04:00 UTC
+        assertEquals(-1, schedule.getThreadCap(Instant.parse("2026-03-28T20:59:00Z")));
+        assertEquals(4, schedule.getThreadCap(Instant.parse("2026-03-28T21:00:00Z")));
+        assertEquals(4, schedule.getThreadCap(Instant.parse("2026-03-29T03:59:00Z")));
+        assertEquals(-1, schedule.getThreadCap(Instant.parse("2026-03-29T04:00:00Z")));
+        assertEquals(Instant.parse("2026-03-29T04:00:00Z"), schedule.getNextTransition(Instant.parse("2026-03-29T01:00:00Z")));
+        assertFalse(schedule.isAllowed(Instant.parse("2026-03-29T21:30:00Z"))); // Sunday night
+    }
+
+    @Test
+    void overlappingWindowsAllowTheLargerCap() {
+        MiningSchedule schedule = schedule("{\"start\": \"08:00\", \"end\": \"12:00\", \"maxThreads\": 2},"
+                + "{\"start\": \"10:00\", \"end\": \"14:00\", \"maxThreads\": 6},"
+                + "{\"start\": \"11:00\", \"end\": \"11:30\"}");
+
+        assertEquals(2, schedule.getThreadCap(Instant.parse("2026-06-01T07:00:00Z"))); // 09:00 CEST
+        assertEquals(6, schedule.getThreadCap(Instant.parse("2026-06-01T08:30:00Z")));
+        assertEquals(0, schedule.getThreadCap(Instant.parse("2026-06-01T09:15:00Z"))); // uncapped window
+        assertEquals(6, schedule.getThreadCap(Instant.parse("2026-06-01T11:00:00Z")));
+    }
+
+    @Test
+    void rejectsMalformedSchedules() {
+        assertThrows(DateTimeException.class, () -> schedule("{\"start\": \"25:00\", \"end\": \"04:00\"}"));
+        assertThrows(DateTimeException.class, () -> new MiningSchedule(new Gson().fromJson(
+                "{\"timeZone\": \"Europe/Nowhere\", \"windows\": [{\"start\": \"02:00\", \"end\": \"04:00\"}]}", MinerPolicy.Schedule.class)));
+    }
+}
@@ -0,0 +1,93 @@
+package skillter.eusminerhat.miner;
+
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the client against a stub of xmrig's HTTP API serving a recorded /2/summary response.
+ */
+class XmrigApiClientTest {
+    private static final String AccessToken = "change-me";
+
+    private HttpServer server;
+    private byte[] summary;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        try (InputStream in = getClass().getResourceAsStream("/xmrig/summary.json")) {
+            summary = in.readAllBytes();
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/2/summary", this::serveSummary);
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    private void serveSummary(HttpExchange exchange) throws IOException {
+        if (!("Bearer " + AccessToken).equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+            exchange.sendResponseHeaders(401, -1);
+            exchange.close();
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, summary.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(summary);
+        }
+    }
+
+    private XmrigApiClient client(String accessToken) {
+        return new XmrigApiClient(server.getAddress().getHostString(), server.getAddress().getPort(), accessToken);
+    }
+
+    @Test
+    void parsesTheRecordedSummaryIntoTelemetry() throws IOException {
+        JsonObject summary = client(AccessToken).getSummary();
+        MinerTelemetry telemetry = new MinerTelemetry();
+        telemetry.updateFromSummary(summary);
+
+        assertEquals(6912.4, telemetry.getHashrate10s(), 1e-9);
+        assertEquals(6897.05, telemetry.getHashrate60s(), 1e-9);
+        assertTrue(Double.isNaN(telemetry.getHashrate15m())); // not reported yet after 1.5 hours
+        assertArrayEquals(new double[] { 866.2, 871.04, 858.93, 862.77, 865.1, 861.48, 864.3, 862.58 }, telemetry.getThreadHashrates(), 1e-9);
+        assertEquals(318, telemetry.getSharesAccepted());
+        assertEquals(3, telemetry.getSharesRejected());
+        assertEquals(42, telemetry.getPoolPingMillis());
+        assertEquals(6912.4, telemetry.getAverageHashrateSince(0), 1e-9);
+    }
+
+    @Test
+    void fallsBackToResultsWithoutConnection() throws IOException {
+        JsonObject summary = client(AccessToken).getSummary();
+        summary.remove("connection");
+        MinerTelemetry telemetry = new MinerTelemetry();
+        telemetry.updateFromSummary(summary);
+
+        assertEquals(318, telemetry.getSharesAccepted());
+        assertEquals(3, telemetry.getSharesRejected());
+    }
+
+    @Test
+    void rejectsAWrongAccessToken() {
+        assertThrows(IOException.class, () -> client("wrong").getSummary());
+    }
+}
@@ -0,0 +1,104 @@
+package skillter.eusminerhat.miner;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class XmrigConsoleParserTest {
+    private static final String TIMESTAMP = "\u001B[1;37m[2026-10-17 21:04:30\u001B[1;30m.002\u001B[1;37m]\u001B[0m ";
+    private static final String CPU = "\u001B[46;1m\u001B[1;37m cpu     \u001B[0m ";
+    private static final String MINER = "\u001B[45;1m\u001B[1;37m miner   \u001B[0m ";
+
+    private final MinerTelemetry telemetry = new MinerTelemetry();
+    private final XmrigConsoleParser parser = new XmrigConsoleParser(telemetry);
+
+    private void feed(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        parser.onLine(bytes, 0, bytes.length);
+    }
+
+    @Test
+    void readsSpeedLines() {
+        feed("[2026-10-17 21:04:30.002]  miner    speed 10s/60s/15m 2101.3 2098.7 2090.0 H/s max 2140.0 H/s\n");
+        assertEquals(2101.3, telemetry.getHashrate10s(), 1e-9);
+        assertEquals(2098.7, telemetry.getHashrate60s(), 1e-9);
+        assertEquals(2090.0, telemetry.getHashrate15m(), 1e-9);
+    }
+
+    @Test
+    void readsNotAvailableSpeedsAsNaN() {
+        feed(TIMESTAMP + MINER + "\u001B[1;37mspeed\u001B[0m 10s/60s/15m \u001B[1;36m6913.3\u001B[0m\u001B[0;36m n/a n/a \u001B[0m\u001B[1;36mH/s\u001B[0m max \u001B[1;36m7011.8 H/s\u001B[0m\n");
+        assertEquals(6913.3, telemetry.getHashrate10s(), 1e-9);
+        assertTrue(Double.isNaN(telemetry.getHashrate60s()));
+        assertTrue(Double.isNaN(telemetry.getHashrate15m()));
+
+        feed("[2026-10-17 21:04:40.002]  miner    speed 10s/60s/15m n/a n/a n/a H/s max n/a H/s\n");
+        assertTrue(Double.isNaN(telemetry.getHashrate10s()));
+        assertTrue(Double.isNaN(telemetry.getHashrate60s()));
+        assertTrue(Double.isNaN(telemetry.getHashrate15m()));
+    }
+
+    @Test
+    void readsAcceptedAndRejectedShares() {
+        feed("[2026-10-17 21:04:21.871]  cpu      accepted (12/0) diff 120001 (45 ms)\n");
+        assertEquals(12, telemetry.getSharesAccepted());
+        assertEquals(0, telemetry.getSharesRejected());
+        assertEquals(120001, telemetry.getPoolDifficulty());
+
+        feed("[2026-10-17 21:04:38.245]  cpu      rejected (12/1) diff 130002 \"Low difficulty share\" (44 ms)\n");
+        assertEquals(12, telemetry.getSharesAccepted());
+        assertEquals(1, telemetry.getSharesRejected());
+        assertEquals(130002, telemetry.getPoolDifficulty());
+    }
+
+    @Test
+    void readsColoredShares() {
+        feed(TIMESTAMP + CPU + "\u001B[1;32maccepted\u001B[0m (318/3) diff \u001B[1;37m120001\u001B[0m \u001B[1;30m(42 ms)\u001B[0m\n");
+        assertEquals(318, telemetry.getSharesAccepted());
+        assertEquals(3, telemetry.getSharesRejected());
+        assertEquals(120001, telemetry.getPoolDifficulty());
+
+        feed(TIMESTAMP + CPU + "\u001B[1;31mrejected\u001B[0m (318/4) diff \u001B[1;37m240003\u001B[0m \u001B[0;31m\"Low difficulty share\"\u001B[0m \u001B[1;30m(44 ms)\u001B[0m\n");
+        assertEquals(318, telemetry.getSharesAccepted());
+        assertEquals(4, telemetry.getSharesRejected());
+        assertEquals(240003, telemetry.getPoolDifficulty());
+    }
+
+    @Test
+    void readsColoredNewJobs() {
+        feed(TIMESTAMP + "\u001B[44;1m\u001B[1;37m net     \u001B[0m \u001B[1;35mnew job\u001B[0m from \u001B[1;37mxmr.f2pool.com:13531\u001B[0m diff \u001B[1;37m120001\u001B[0m algo \u001B[1;37mrx/0\u001B[0m height \u001B[1;37m3251920\u001B[0m\n");
+        assertEquals(1, telemetry.getJobsReceived());
+        assertEquals(120001, telemetry.getPoolDifficulty());
+    }
+
+    @Test
+    void joinsALineCommittedInTwoParts() {
+        String line = TIMESTAMP + CPU + "\u001B[1;32maccepted\u001B[0m (77/2) diff \u001B[1;37m120001\u001B[0m \u001B[1;30m(42 ms)\u001B[0m\n";
+        int split = line.indexOf("(77/2)") + 3; // between the digits
+        feed(line.substring(0, split));
+        assertEquals(0, telemetry.getSharesAccepted()); // nothing until the line is complete
+        feed(line.substring(split));
+        assertEquals(77, telemetry.getSharesAccepted());
+        assertEquals(2, telemetry.getSharesRejected());
+
+        int inEscape = line.indexOf("\u001B[1;37m120001") + 3; // inside an escape sequence
+        feed(line.substring(0, inEscape).replace("77/2", "78/2"));
+        feed(line.substring(inEscape));
+        assertEquals(78, telemetry.getSharesAccepted());
+        assertEquals(120001, telemetry.getPoolDifficulty());
+    }
+
+    @Test
+    void joinsALineLongerThanThePumpLineBuffer() {
+        String padding = "x".repeat(MinerOutputPump.LINE_BUFFER_SIZE);
+        feed("[2026-10-17 21:04:21.871]  cpu      accepted (5/1) diff 120001 " + padding.substring(0, 990));
+        feed(padding + "\n"); // the rest does not fit and is dropped
+        assertEquals(5, telemetry.getSharesAccepted());
+
+        feed("[2026-10-17 21:04:22.871]  cpu      accepted (6/1) diff 120001 (40 ms)\n");
+        assertEquals(6, telemetry.getSharesAccepted()); // the next line starts from an empty buffer
+    }
+}
@@ -0,0 +1,97 @@
+package skillter.eusminerhat.monitor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import skillter.eusminerhat.util.CpuList;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CpuTopologyTest {
+    @TempDir
+    Path sysfs;
+
+    private void write(String file, String content) throws IOException {
+        Path path = sysfs.resolve(file);
+        Files.createDirectories(path.getParent());
+        Files.write(path, (content + "\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private void cache(int cpu, int index, int level, String type, String size, String sharedCpus) throws IOException {
+        String dir = "cpu" + cpu + "/cache/index" + index + "/";
+        write(dir + "level", String.valueOf(level));
+        write(dir + "type", type);
+        write(dir + "size", size);
+        write(dir + "shared_cpu_list", sharedCpus);
+    }
+
+    /**
+     * 8 CPUs on 4 SMT cores (siblings n and n+4), two L3 caches of 16 MB shared by two cores each.
+     */
+    private void writeTwoCacheMachine() throws IOException {
+        for (int cpu = 0; cpu < 8; cpu++) {
+            int core = cpu % 4;
+            write("cpu" + cpu + "/topology/thread_siblings_list", core + "," + (core + 4));
+            cache(cpu, 0, 1, "Data", "32K", core + "," + (core + 4));
+            cache(cpu, 1, 1, "Instruction", "32K", core + "," + (core + 4));
+            cache(cpu, 2, 2, "Unified", "512K", core + "," + (core + 4));
+            cache(cpu, 3, 3, "Unified", "16384K", core < 2 ? "0-1,4-5" : "2-3,6-7");
+        }
+        Files.createDirectories(sysfs.resolve("cpu8")); // offline, no topology
+        Files.createDirectories(sysfs.resolve("cpufreq")); // not a CPU
+    }
+
+    @Test
+    void readsCoresAndLastLevelCaches() throws IOException {
+        writeTwoCacheMachine();
+        CpuTopology topology = CpuTopology.read(sysfs.toString());
+
+        assertEquals(CpuList.parse("0-7"), topology.getCpus());
+        assertEquals(4, topology.countCores(topology.getCpus()));
+        assertEquals(3, topology.getLastLevel());
+        assertEquals(2, topology.countLastLevelCaches(topology.getCpus()));
+        assertEquals(32L * 1024 * 1024, topology.getLastLevelCacheBytes(topology.getCpus()));
+    }
+
+    @Test
+    void countsSmtSiblingsAsOneCore() throws IOException {
+        writeTwoCacheMachine();
+        CpuTopology topology = CpuTopology.read(sysfs.toString());
+
+        assertEquals(1, topology.countCores(CpuList.parse("0,4")));
+        assertEquals(2, topology.countCores(CpuList.parse("0-1")));
+        assertEquals(0, topology.countCores(CpuList.parse("8")));
+        assertEquals(1, topology.countLastLevelCaches(CpuList.parse("0-1")));
+        assertEquals(16L * 1024 * 1024, topology.getLastLevelCacheBytes(CpuList.parse("2,7")));
+    }
+
+    @Test
+    void lacksCachesWhenNoneAreListed() throws IOException {
+        write("cpu0/topology/thread_siblings_list", "0");
+        write("cpu1/topology/thread_siblings_list", "1");
+        CpuTopology topology = CpuTopology.read(sysfs.toString());
+
+        assertEquals(2, topology.countCores(topology.getCpus()));
+        assertEquals(0, topology.getLastLevel());
+        assertEquals(0, topology.getLastLevelCacheBytes(topology.getCpus()));
+    }
+
+    @Test
+    void failsOnMissingRoot() {
+        assertThrows(IOException.class, () -> CpuTopology.read(sysfs.resolve("missing").toString()));
+    }
+
+    @Test
+    void parsesSizes() {
+        assertEquals(32L * 1024 * 1024, CpuTopology.parseSize("32768K"));
+        assertEquals(32L * 1024 * 1024, CpuTopology.parseSize("32M"));
+        assertEquals(1024L * 1024 * 1024, CpuTopology.parseSize("1G"));
+        assertEquals(4096L, CpuTopology.parseSize("4k"));
+        assertEquals(512L, CpuTopology.parseSize("512"));
+    }
+}
@@ -0,0 +1,96 @@
+package skillter.eusminerhat.monitor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import skillter.eusminerhat.util.CpuList;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NumaTopologyTest {
+    @TempDir
+    Path sysfs;
+
+    private void write(String file, String content) throws IOException {
+        Path path = sysfs.resolve(file);
+        Files.createDirectories(path.getParent());
+        Files.write(path, (content + "\n").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private void node(int id, String cpus, long memTotalKilobytes) throws IOException {
+        write("node" + id + "/cpulist", cpus);
+        write("node" + id + "/meminfo", "Node " + id + " MemTotal:       " + memTotalKilobytes + " kB\n"
+                + "Node " + id + " MemFree:        " + memTotalKilobytes / 2 + " kB");
+    }
+
+    @Test
+    void readsTheNodesInOrder() throws IOException {
+        node(1, "8-15,24-31", 33554432);
+        node(0, "0-7,16-23", 33554432);
+        write("possible", "0-1"); // not a node
+
+        List<NumaTopology.Node> nodes = NumaTopology.read(sysfs.toString());
+        assertEquals(2, nodes.size());
+        assertEquals(0, nodes.get(0).getId());
+        assertEquals("0-7,16-23", CpuList.format(nodes.get(0).getCpus()));
+        assertEquals(1, nodes.get(1).getId());
+        assertEquals("8-15,24-31", CpuList.format(nodes.get(1).getCpus()));
+        assertEquals(33554432L * 1024, nodes.get(1).getMemTotalBytes());
+
+        assertEquals(nodes, NumaTopology.selectMinerNodes(nodes));
+    }
+
+    @Test
+    void selectsNodesWithCpusAndMemory() throws IOException {
+        node(0, "0-3", 16777216);
+        node(1, "", 16777216); // memory only
+        node(2, "4-7", 0); // CPUs without local memory
+        node(3, "8-11", 16777216);
+
+        List<NumaTopology.Node> nodes = NumaTopology.read(sysfs.toString());
+        assertEquals(3, nodes.size()); // the memory-only node is left out
+        List<NumaTopology.Node> selected = NumaTopology.selectMinerNodes(nodes);
+        assertEquals(2, selected.size());
+        assertEquals(0, selected.get(0).getId());
+        assertEquals(3, selected.get(1).getId());
+    }
+
+    @Test
+    void keepsNodesThatDoNotListTheirMemory() throws IOException {
+        write("node0/cpulist", "0-3");
+        write("node1/cpulist", "4-7");
+
+        List<NumaTopology.Node> nodes = NumaTopology.read(sysfs.toString());
+        assertEquals(-1, nodes.get(0).getMemTotalBytes());
+        assertEquals(2, NumaTopology.selectMinerNodes(nodes).size());
+    }
+
+    @Test
+    void singleNodeRunsOneUnboundMiner() throws IOException {
+        node(0, "0-15", 67108864);
+
+        List<NumaTopology.Node> nodes = NumaTopology.read(sysfs.toString());
+        assertEquals(1, nodes.size());
+        assertTrue(NumaTopology.selectMinerNodes(nodes).isEmpty());
+    }
+
+    @Test
+    void oneNodeWithMemoryRunsOneUnboundMiner() throws IOException {
+        node(0, "0-7", 67108864);
+        node(1, "8-15", 0);
+
+        assertTrue(NumaTopology.selectMinerNodes(NumaTopology.read(sysfs.toString())).isEmpty());
+    }
+
+    @Test
+    void failsWithoutNumaSupport() {
+        assertThrows(IOException.class, () -> NumaTopology.read(sysfs.resolve("missing").toString()));
+    }
+}
@@ -0,0 +1,65 @@
+package skillter.eusminerhat.monitor;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TickHistogramTest {
+    private static double recordOne(TickHistogram histogram, long micros) {
+        histogram.reset();
+        histogram.record(micros * 1000);
+        return histogram.getPercentileMillis(100);
+    }
+
+    @Test
+    void isExactBelow128Micros() {
+        TickHistogram histogram = new TickHistogram();
+        for (long micros = 0; micros < 128; micros++) {
+            assertEquals(micros / 1000.0, recordOne(histogram, micros), 1e-9);
+        }
+    }
+
+    @Test
+    void bucketBoundsStayWithinTheSubBucketResolution() {
+        TickHistogram histogram = new TickHistogram();
+        for (long micros = 128; micros < 10_000_000; micros = micros * 9 / 8 + 1) {
+            long upper = Math.round(recordOne(histogram, micros) * 1000);
+            assertTrue(upper >= micros, "upper bound " + upper + " below " + micros);
+            assertTrue(upper <= micros * (1 + 1.0 / 64), "upper bound " + upper + " too far above " + micros);
+        }
+    }
+
+    @Test
+    void adjacentValuesAtBucketEdges() {
+        TickHistogram histogram = new TickHistogram();
+        // 128..129 share a bucket once sub-buckets are two microseconds wide, 130 starts the next one
+        assertEquals(0.129, recordOne(histogram, 128), 1e-9);
+        assertEquals(0.129, recordOne(histogram, 129), 1e-9);
+        assertEquals(0.131, recordOne(histogram, 130), 1e-9);
+        assertEquals(0.255, recordOne(histogram, 255), 1e-9);
+        assertEquals(0.259, recordOne(histogram, 256), 1e-9);
+    }
+
+    @Test
+    void clampsOutOfRangeValues() {
+        TickHistogram histogram = new TickHistogram();
+        assertEquals(0, recordOne(histogram, -5), 1e-9);
+        double max = recordOne(histogram, Long.MAX_VALUE / 1000);
+        assertTrue(max >= Integer.MAX_VALUE / 1000.0 && max <= Integer.MAX_VALUE / 1000.0 * (1 + 1.0 / 64));
+    }
+
+    @Test
+    void ranksPercentiles() {
+        TickHistogram histogram = new TickHistogram();
+        assertEquals(0, histogram.getPercentileMillis(50), 1e-9);
+        for (int i = 0; i < 99; i++) {
+            histogram.record(1_000_000); // 1 ms
+        }
+        histogram.record(100_000_000); // 100 ms
+        assertEquals(100, histogram.getTotalCount());
+        assertEquals(1, histogram.getPercentileMillis(50), 0.02);
+        assertEquals(1, histogram.getPercentileMillis(99), 0.02);
+        assertEquals(100, histogram.getPercentileMillis(100), 100.0 / 64);
+    }
+}
@@ -0,0 +1,59 @@
+package skillter.eusminerhat.monitor;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TickMonitorTest {
+    private static final long MILLIS = 1_000_000;
+
+    @Test
+    void samplesTheTickWorkTimeInsteadOfTheInterval() throws InterruptedException {
+        TickMonitor monitor = new TickMonitor(100);
+        monitor.run();
+        Thread.sleep(5);
+        monitor.run(); // an interval sample, until the server reports its work time
+        assertFalse(monitor.isTickWorkMeasured());
+        assertEquals(1, monitor.getSampleCount());
+
+        for (int i = 0; i < 100; i++) {
+            monitor.recordTickWork(45 * MILLIS); // a server at 90% of its 50 ms budget
+            monitor.run();
+        }
+
+        assertTrue(monitor.isTickWorkMeasured());
+        assertEquals(100, monitor.getSampleCount()); // no intervals, the first one is dropped
+        assertEquals(45.5, monitor.getPercentileMillis(95), 1e-9); // upper bound of the 45 ms bucket
+    }
+
+    @Test
+    void recorderGetsTheWorkTime() {
+        TickMonitor monitor = new TickMonitor(100);
+        TickHistogram recorder = new TickHistogram();
+        monitor.setRecorder(recorder);
+        for (int i = 0; i < 20; i++) {
+            monitor.recordTickWork(45 * MILLIS);
+            monitor.run();
+        }
+
+        assertEquals(20, recorder.getTotalCount());
+        assertTrue(recorder.getPercentileMillis(95) < 50);
+    }
+
+    @Test
+    void percentileCoversOnlyTheWindow() {
+        TickMonitor monitor = new TickMonitor(20);
+        for (int i = 0; i < 20; i++) {
+            monitor.record(80 * MILLIS);
+        }
+        assertEquals(80.5, monitor.getPercentileMillis(95), 1e-9);
+
+        for (int i = 0; i < 20; i++) {
+            monitor.record(10 * MILLIS);
+        }
+        assertEquals(20, monitor.getSampleCount());
+        assertEquals(10.5, monitor.getPercentileMillis(95), 1e-9);
+    }
+}
@@ -0,0 +1,42 @@
+package skillter.eusminerhat.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CpuListTest {
+    @Test
+    void parsesRangesAndSingleCpus() {
+        BitSet cpus = CpuList.parse("0-3,8,10-11");
+        assertEquals(7, cpus.cardinality());
+        assertTrue(cpus.get(0) && cpus.get(3) && cpus.get(8) && cpus.get(10) && cpus.get(11));
+        assertEquals(-1, cpus.nextSetBit(12));
+    }
+
+    @Test
+    void parsesWhitespaceAndEmptyLists() {
+        assertEquals(CpuList.parse("0-1"), CpuList.parse(" 0 - 1 \n"));
+        assertTrue(CpuList.parse("").isEmpty());
+        assertTrue(CpuList.parse("\n").isEmpty());
+    }
+
+    @Test
+    void formatsRuns() {
+        BitSet cpus = new BitSet();
+        cpus.set(0, 4);
+        cpus.set(8);
+        cpus.set(10, 12);
+        assertEquals("0-3,8,10-11", CpuList.format(cpus));
+        assertEquals("", CpuList.format(new BitSet()));
+    }
+
+    @Test
+    void roundTrips() {
+        for (String list : new String[] { "0", "5", "0-63", "1,3,5,7", "0-1,64-65,127" }) {
+            assertEquals(list, CpuList.format(CpuList.parse(list)));
+        }
+    }
+}
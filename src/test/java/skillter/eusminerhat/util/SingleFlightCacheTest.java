@@ -0,0 +1,162 @@
+package skillter.eusminerhat.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SingleFlightCacheTest {
+    /**
+     * Loader whose loads are completed by the test.
+     */
+    private static class ManualLoader {
+        final AtomicInteger calls = new AtomicInteger();
+        final List<CompletableFuture<String>> loads = new ArrayList<>();
+
+        synchronized CompletableFuture<String> load(String key) {
+            calls.incrementAndGet();
+            CompletableFuture<String> load = new CompletableFuture<>();
+            loads.add(load);
+            return load;
+        }
+
+        synchronized CompletableFuture<String> last() {
+            return loads.get(loads.size() - 1);
+        }
+    }
+
+    @Test
+    void concurrentCallersShareOneLoad() throws Exception {
+        ManualLoader loader = new ManualLoader();
+        SingleFlightCache<String, String> cache = new SingleFlightCache<>(loader::load, 60_000, 0);
+
+        int callers = 32;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        List<CompletableFuture<CompletableFuture<String>>> results = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+            results.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return cache.get("wallet");
+            }, executor));
+        }
+        start.countDown();
+        List<CompletableFuture<String>> values = new ArrayList<>();
+        for (CompletableFuture<CompletableFuture<String>> result : results) {
+            values.add(result.get(5, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+
+        assertEquals(1, loader.calls.get());
+        for (CompletableFuture<String> value : values) {
+            assertFalse(value.isDone());
+        }
+        loader.last().complete("v1");
+        for (CompletableFuture<String> value : values) {
+            assertEquals("v1", value.get());
+        }
+    }
+
+    @Test
+    void freshValuesAreNotLoadedAgain() throws Exception {
+        ManualLoader loader = new ManualLoader();
+        SingleFlightCache<String, String> cache = new SingleFlightCache<>(loader::load, 60_000, 0);
+        CompletableFuture<String> first = cache.get("wallet");
+        loader.last().complete("v1");
+
+        assertEquals("v1", first.get());
+        assertEquals("v1", cache.get("wallet").get());
+        assertEquals("v1", cache.peek("wallet"));
+        assertEquals(1, loader.calls.get());
+    }
+
+    @Test
+    void staleValuesAreServedWhileOneRefreshRuns() throws Exception {
+        ManualLoader loader = new ManualLoader();
+        SingleFlightCache<String, String> cache = new SingleFlightCache<>(loader::load, 20, 60_000);
+        cache.get("wallet");
+        loader.last().complete("v1");
+        Thread.sleep(50);
+
+        CompletableFuture<String> stale = cache.get("wallet");
+        assertTrue(stale.isDone());
+        assertEquals("v1", stale.get());
+        assertEquals("v1", cache.get("wallet").get());
+        assertEquals(2, loader.calls.get()); // one refresh behind both callers
+
+        loader.last().complete("v2");
+        assertEquals("v2", cache.peek("wallet"));
+        assertEquals("v2", cache.get("wallet").get());
+        assertEquals(2, loader.calls.get());
+    }
+
+    @Test
+    void valuesPastTheStaleTimeAreWaitedFor() throws Exception {
+        ManualLoader loader = new ManualLoader();
+        SingleFlightCache<String, String> cache = new SingleFlightCache<>(loader::load, 10, 10);
+        cache.get("wallet");
+        loader.last().complete("v1");
+        Thread.sleep(50);
+
+        CompletableFuture<String> reloaded = cache.get("wallet");
+        assertFalse(reloaded.isDone());
+        loader.last().complete("v2");
+        assertEquals("v2", reloaded.get());
+    }
+
+    @Test
+    void refreshJoinsTheLoadInFlight() throws Exception {
+        ManualLoader loader = new ManualLoader();
+        SingleFlightCache<String, String> cache = new SingleFlightCache<>(loader::load, 60_000, 0);
+        CompletableFuture<String> loading = cache.get("wallet");
+
+        assertSame(loading, cache.refresh("wallet"));
+        loader.last().complete("v1");
+        CompletableFuture<String> refreshed = cache.refresh("wallet");
+        assertEquals(2, loader.calls.get());
+        loader.last().complete("v2");
+        assertEquals("v2", refreshed.get());
+    }
+
+    @Test
+    void failedLoadsKeepThePreviousValueAndAreRetried() throws Exception {
+        ManualLoader loader = new ManualLoader();
+        SingleFlightCache<String, String> cache = new SingleFlightCache<>(loader::load, 60_000, 0);
+        CompletableFuture<String> failing = cache.get("wallet");
+        loader.last().completeExceptionally(new IOException("pool down"));
+
+        ExecutionException error = assertThrows(ExecutionException.class, failing::get);
+        assertInstanceOf(IOException.class, error.getCause());
+        assertNull(cache.peek("wallet"));
+
+        CompletableFuture<String> retried = cache.get("wallet");
+        assertEquals(2, loader.calls.get());
+        loader.last().complete("v1");
+        assertEquals("v1", retried.get());
+
+        CompletableFuture<String> refreshed = cache.refresh("wallet");
+        loader.last().completeExceptionally(new IOException("pool down"));
+        assertThrows(ExecutionException.class, refreshed::get);
+        assertEquals("v1", cache.peek("wallet"));
+    }
+}